@@ -1,20 +1,23 @@
 package miniplc0java;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
 
 import miniplc0java.analyser.Analyser;
 import miniplc0java.error.CompileError;
 import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Program;
 import miniplc0java.tokenizer.StringIter;
 import miniplc0java.tokenizer.Token;
+import miniplc0java.tokenizer.TokenBuffer;
 import miniplc0java.tokenizer.TokenType;
 import miniplc0java.tokenizer.Tokenizer;
 //
@@ -41,10 +44,10 @@ public class App {
 
         InputStream input=System.in;
         PrintStream output=System.out;
-        try {
-            input = new FileInputStream("in.txt");
-        }catch (FileNotFoundException e)
+        Path inputPath = Path.of("in.txt");
+        if (!Files.isReadable(inputPath))
         {
+            inputPath = null;
             System.err.println("shit找不到！！！！");
         }
         try{
@@ -83,15 +86,20 @@ public class App {
 //            }
 //        }
 
-        Scanner scanner;
-        scanner = new Scanner(input);
+        StringIter iter;
+        if (inputPath != null) {
+            // 直接映射文件，不再经过 Scanner 按行切分，也不解码成 char
+            iter = new StringIter(inputPath, true);
+        } else {
+            // 从标准输入读的时候用流式模式，边读边解析
+            iter = new StringIter(Channels.newChannel(input));
+        }
 
 //        while(scanner.hasNext())
 //        {
 //            System.out.println(scanner.nextLine());
 //        }
 
-        var iter = new StringIter(scanner);
         var tokenizer = tokenize(iter);
 
 //        var tokens = new ArrayList<Token>();
@@ -115,16 +123,32 @@ public class App {
 
 
 
-            var analyzer = new Analyser(tokenizer);
+            var tokens = new TokenBuffer(tokenizer);
+            var analyzer = new Analyser(tokens);
             List<Instruction> instructions;
+            Program program;
             try {
+                // 整个文件已经在内存里的时候先一次性切成 token，流式模式下由 Analyser 按需读取
+                if (!iter.isStreaming()) {
+                    tokens.fillAll();
+                }
                 instructions = analyzer.analyse();
+                program = analyzer.generate();
             } catch (Exception e) {
                 // 遇到错误不输出，直接退出
                 System.err.println(e+"fail");
                 System.exit(777);
                 return;
             }
+            output.print(program);
+            // -Dpeephole.report=true 时在标准错误输出窥孔优化每条规则的命中次数
+            if (Boolean.getBoolean("peephole.report")) {
+                System.err.print(analyzer.getPeephole().report());
+            }
+            // -Dpasses.report=true 时在标准错误输出控制流图上每个 Pass 和分析的次数和用时
+            if (Boolean.getBoolean("passes.report")) {
+                System.err.print(analyzer.getPasses().report());
+            }
 
 
 
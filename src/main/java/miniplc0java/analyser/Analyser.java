@@ -1,76 +1,293 @@
 package miniplc0java.analyser;
 
+import miniplc0java.ast.Ast;
+import miniplc0java.ast.NodeKind;
 import miniplc0java.error.AnalyzeError;
 import miniplc0java.error.CompileError;
 import miniplc0java.error.ErrorCode;
 import miniplc0java.error.ExpectedTokenError;
 import miniplc0java.error.TokenizeError;
+import miniplc0java.instruction.DeadCodeEliminator;
 import miniplc0java.instruction.Instruction;
 import miniplc0java.instruction.Operation;
-import miniplc0java.tokenizer.Token;
+import miniplc0java.instruction.PeepholeOptimizer;
+import miniplc0java.instruction.Program;
+import miniplc0java.ir.DeadStoreElimination;
+import miniplc0java.ir.PassManager;
+import miniplc0java.ir.UnreachableBlockElimination;
+import miniplc0java.tokenizer.TokenBuffer;
 import miniplc0java.tokenizer.TokenType;
 import miniplc0java.tokenizer.Tokenizer;
-import miniplc0java.util.Pos;
 
 import java.util.*;
 
 public final class Analyser {
 
-    Tokenizer tokenizer;
+    TokenBuffer tokens;
     ArrayList<Instruction> instructions;
+    final PeepholeOptimizer peephole = new PeepholeOptimizer();
+    final PassManager passes = new PassManager()
+            .add(new UnreachableBlockElimination())
+            .add(new DeadStoreElimination());
+
+    /** 下一个要读取的 token 在 tokens 中的下标 */
+    int cursor = 0;
+
+    /** 符号表，全局、参数和块内的局部变量都在这里 */
+    SymbolTable symbols;
+
+    /** 顶层声明按出现顺序排列，为 null 表示需要从头分析 */
+    ArrayList<TopLevelItem> items = null;
+
+    /** 正在分析的顶层声明的语法树 */
+    Ast ast;
+
+    /** 正在分析的函数，分析全局变量时为 null */
+    Element function;
+
+    // 语句栈的帧，每帧三格 {种类, a, b}
+    private static final int FRAME_BLOCK = 0;  // a 是 '{' 的下标，b 是子语句列表的起点
+    private static final int FRAME_WHILE = 1;  // a 是 'while' 的下标，b 是条件
+    private static final int FRAME_THEN = 2;   // a 是最外层的 if 节点，b 是在等 then 分支的 if 节点
+    private static final int FRAME_ELSE = 3;   // a 同上，b 是在等 else 分支的 if 节点
+
+    /** 显式的语句栈，嵌套的块不占用 JVM 线程栈 */
+    int[] frames = new int[48];
+    int frameTop = 0;
+    /** 栈上 while 帧的个数，为 0 时不能 break 和 continue */
+    int loops = 0;
+
+    /** 二元运算符的优先级，下标是 TokenType 的序号，越大越紧，0 表示不是二元运算符 */
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+    /** as 的优先级，比所有二元运算符都紧 */
+    private static final int AS_PRECEDENCE = 4;
+
+    /** 各个语法成分的 FIRST 集，按 TokenType 的序号压成位掩码，一次位运算就能判断 */
+    private static final long LITERAL_FIRST = mask(TokenType.UINT_LITERAL, TokenType.CHAR_LITERAL,
+            TokenType.DOUBLE_LITERAL, TokenType.STRING_LITERAL);
+    private static final long EXPR_FIRST = LITERAL_FIRST | mask(TokenType.MINUS, TokenType.IDENT, TokenType.L_PAREN);
+    private static final long STMT_FIRST = EXPR_FIRST | mask(TokenType.LET_KW, TokenType.CONST_KW, TokenType.IF_KW,
+            TokenType.WHILE_KW, TokenType.BREAK_KW, TokenType.CONTINUE_KW, TokenType.RETURN_KW, TokenType.SEMICOLON,
+            TokenType.L_BRACE);
+    private static final long ITEM_FIRST = mask(TokenType.CONST_KW, TokenType.LET_KW, TokenType.FN_KW);
+
+    private static long mask(TokenType... types) {
+        if (TokenType.values().length > Long.SIZE) {
+            throw new Error("too many token types for a long mask");
+        }
+        long mask = 0;
+        for (var tt : types) {
+            mask |= 1L << tt.ordinal();
+        }
+        return mask;
+    }
 
-    Zone Standard;
+    /**
+     * @return tt 是否在位掩码表示的集合 set 里
+     */
+    private static boolean in(long set, TokenType tt) {
+        return (set >>> tt.ordinal() & 1) != 0;
+    }
 
+    static {
+        PRECEDENCE[TokenType.MUL.ordinal()] = 3;
+        PRECEDENCE[TokenType.DIV.ordinal()] = 3;
+        PRECEDENCE[TokenType.PLUS.ordinal()] = 2;
+        PRECEDENCE[TokenType.MINUS.ordinal()] = 2;
+        for (var tt : new TokenType[] { TokenType.EQ, TokenType.NEQ, TokenType.LT, TokenType.GT, TokenType.LE,
+                TokenType.GE }) {
+            PRECEDENCE[tt.ordinal()] = 1;
+        }
+    }
 
+    public Analyser(Tokenizer tokenizer) {
+        this(new TokenBuffer(tokenizer));
+    }
 
+    public Analyser(TokenBuffer tokens) {
+        this.tokens = tokens;
+        this.instructions = new ArrayList<>();
+        this.symbols = new SymbolTable(tokens.getInterner());
+    }
 
+    public List<Instruction> analyse() throws CompileError {
+        cursor = 0;
+        items = null;
+        analyseProgram();
+        return instructions;
+    }
+
+    /**
+     * 增量分析：把源码中 [offset, offset + removed) 替换成 inserted，
+     * 只重新切受影响的 token，只重新分析包含它们的顶层声明，其余声明的结果直接复用
+     *
+     * @throws CompileError 编辑后的源码有错误时抛出，下一次编辑会从头分析
+     */
+    public List<Instruction> edit(int offset, int removed, String inserted) throws CompileError {
+        var splice = tokens.edit(offset, removed, inserted);
+        if (items == null) {
+            return analyse();
+        }
+        try {
+            reanalyse(splice);
+        } catch (CompileError e) {
+            items = null;
+            throw e;
+        }
+        return instructions;
+    }
 
-    /** 当前偷看的 token */
-    Token peekedToken = null;
+    /**
+     * @return 每个顶层声明的语法树，按声明顺序排列
+     */
+    public List<Ast> getProgram() {
+        var program = new ArrayList<Ast>(items.size());
+        for (var item : items) {
+            program.add(item.ast);
+        }
+        return program;
+    }
 
-    /** 符号表 */
-    HashMap<String, SymbolEntry> symbolTable = new HashMap<>();
+    /**
+     * 把分析好的程序折叠常量以后翻译成指令，每个函数一段，最后是初始化全局变量并调用 main 的入口
+     *
+     * 生成的指令轮流做窥孔优化和控制流图上的 Pass，两者互相制造机会（窥孔把写后读变成 DUP、写，
+     * 死存储删除留下 DUP、POP），指令不再变少为止。执行不到的代码这时已经被控制流图上的 Pass 删掉了，
+     * 再按调用图删掉调用不到的函数和不用的全局变量，这一步会留下新的 LIT、POP，所以最后再做一遍窥孔优化
+     */
+    public Program generate() throws CompileError {
+        var program = new CodeGenerator(tokens).generate(new ConstantFolder().fold(items));
+        int size = Integer.MAX_VALUE;
+        while (true) {
+            peephole.optimize(program);
+            passes.run(program);
+            int now = 0;
+            for (var function : program.getFunctions()) {
+                now += function.getBody().size();
+            }
+            if (now >= size) {
+                break;
+            }
+            size = now;
+        }
+        new DeadCodeEliminator().eliminate(program);
+        peephole.optimize(program);
+        return program;
+    }
 
-    /** 下一个变量的栈偏移 */
-    int nextOffset = 0;
+    /**
+     * @return 窥孔优化器，每条规则的命中次数在多次 generate 之间累计
+     */
+    public PeepholeOptimizer getPeephole() {
+        return peephole;
+    }
 
-    public Analyser(Tokenizer tokenizer) {
-        this.tokenizer = tokenizer;
-        this.instructions = new ArrayList<>();
+    /**
+     * @return 控制流图上的 Pass，每个 Pass 和分析的用时在多次 generate 之间累计
+     */
+    public PassManager getPasses() {
+        return passes;
     }
 
-    public List<Instruction> analyse() throws CompileError {
-        analyseProgram();
-        return instructions;
+    /**
+     * @return 全局符号（函数和全局变量），按声明顺序排列
+     */
+    public List<Element> getGlobals() {
+        return symbols.globals();
+    }
+
+    /**
+     * 从第一个包含被替换 token 的顶层声明开始重新分析，
+     * 越过被替换的范围以后，一旦分析到某个旧声明的开头，之后的声明就原样复用
+     */
+    private void reanalyse(TokenBuffer.Splice splice) throws CompileError {
+        int shift = splice.newEnd - splice.oldEnd;
+        // 顶层声明不会向后多看 token，所以结束在 from 之前的声明不受影响
+        int first = 0;
+        while (first < items.size() && items.get(first).end <= splice.from) {
+            first++;
+        }
+        cursor = first < items.size() ? items.get(first).start : first == 0 ? 0 : items.get(first - 1).end;
+
+        // 前面没动的声明按原来的顺序重新登记，重新分析的声明才能看到它们
+        symbols = new SymbolTable(tokens.getInterner());
+        for (var item : items.subList(0, first)) {
+            redeclare(item);
+        }
+        var fresh = new ArrayList<TopLevelItem>();
+        int resume = items.size();
+        while (isTopLevelStart(peek())) {
+            fresh.add(analyseTopLevelItem());
+            if (cursor >= splice.newEnd) {
+                int old = findItem(cursor - shift, first);
+                if (old >= 0) {
+                    resume = old;
+                    break;
+                }
+            }
+        }
+        if (resume == items.size()) {
+            expect(TokenType.EOF);
+        }
+
+        var spliced = new ArrayList<TopLevelItem>(items.subList(0, first));
+        spliced.addAll(fresh);
+        for (var item : items.subList(resume, items.size())) {
+            item.start += shift;
+            item.end += shift;
+            item.ast.rebase(shift);
+            redeclare(item);
+            // 前面的声明可能改了签名或者类型，复用的声明要重新检查一遍
+            new TypeChecker(symbols, item.ast, item.symbol).check();
+            spliced.add(item);
+        }
+        items = spliced;
+    }
+
+    /**
+     * @return 从 from 开始第一个以 start 开头的旧声明，找不到返回 -1
+     */
+    private int findItem(int start, int from) {
+        int lo = from, hi = items.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (items.get(mid).start < start) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < items.size() && items.get(lo).start == start ? lo : -1;
+    }
+
+    /**
+     * 把复用的声明的符号重新登记到全局作用域，槽位按新的顺序重新分配
+     */
+    private void redeclare(TopLevelItem item) throws CompileError {
+        if (!symbols.declare(item.symbol)) {
+            throw error(ErrorCode.DuplicateDeclaration, item.start + 1);
+        }
     }
 
     /**
-     * 查看下一个 Token
+     * 查看下一个 Token 的类型
      *
      * @return
      * @throws TokenizeError
      */
-    private Token peek() throws TokenizeError {
-        if (peekedToken == null) {
-            peekedToken = tokenizer.nextToken();
-        }
-        return peekedToken;
+    private TokenType peek() throws TokenizeError {
+        return tokens.typeAt(cursor);
     }
 
     /**
      * 获取下一个 Token
      *
-     * @return
+     * @return 这个 token 在 tokens 中的下标
      * @throws TokenizeError
      */
-    private Token next() throws TokenizeError {
-        if (peekedToken != null) {
-            var token = peekedToken;
-            peekedToken = null;
-            return token;
-        } else {
-            return tokenizer.nextToken();
-        }
+    private int next() throws TokenizeError {
+        tokens.typeAt(cursor);
+        return cursor++;
     }
 
     /**
@@ -81,23 +298,21 @@ public final class Analyser {
      * @throws TokenizeError
      */
     private boolean check(TokenType tt) throws TokenizeError {
-        var token = peek();
-        return token.getTokenType() == tt;
+        return peek() == tt;
     }
 
     /**
      * 如果下一个 token 的类型是 tt，则前进一个 token 并返回这个 token
      *
      * @param tt 类型
-     * @return 如果匹配则返回这个 token，否则返回 null
+     * @return 如果匹配则返回这个 token 的下标，否则返回 -1
      * @throws TokenizeError
      */
-    private Token nextIf(TokenType tt) throws TokenizeError {
-        var token = peek();
-        if (token.getTokenType() == tt) {
+    private int nextIf(TokenType tt) throws TokenizeError {
+        if (peek() == tt) {
             return next();
         } else {
-            return null;
+            return -1;
         }
     }
 
@@ -105,123 +320,150 @@ public final class Analyser {
      * 如果下一个 token 的类型是 tt，则前进一个 token 并返回，否则抛出异常
      *
      * @param tt 类型
-     * @return 这个 token
+     * @return 这个 token 的下标
      * @throws CompileError 如果类型不匹配
      */
-    private Token expect(TokenType tt) throws CompileError {
-        var token = peek();
-        if (token.getTokenType() == tt) {
+    private int expect(TokenType tt) throws CompileError {
+        if (peek() == tt) {
             return next();
         } else {
-            throw new ExpectedTokenError(tt, token);
+            throw new ExpectedTokenError(tt, tokens.tokenAt(cursor));
         }
     }
 
     /**
-     * 获取下一个变量的栈偏移
-     *
-     * @return
+     * 在下标 token 处出错，行列号等到报告错误时才换算
      */
-    private int getNextVariableOffset() {
-        return this.nextOffset++;
+    private AnalyzeError error(ErrorCode code, int token) throws TokenizeError {
+        return new AnalyzeError(code, tokens.getSource(), tokens.startAt(token));
     }
 
     /**
-     * 添加一个符号
+     * 在当前作用域添加一个符号
      *
-     * @param name          名字
+     * @param name          名字的编号
      * @param isInitialized 是否已赋值
      * @param isConstant    是否是常量
-     * @param curPos        当前 token 的位置（报错用）
-     * @throws AnalyzeError 如果重复定义了则抛异常
+     * @param curToken      当前 token（报错用）
+     * @throws AnalyzeError 如果同一作用域里重复定义了则抛异常
      */
-    private void addSymbol(String name, boolean isInitialized, boolean isConstant, Pos curPos) throws AnalyzeError {
-        if (this.symbolTable.get(name) != null) {
-            throw new AnalyzeError(ErrorCode.DuplicateDeclaration, curPos);
-        } else {
-            this.symbolTable.put(name, new SymbolEntry(isConstant, isInitialized, getNextVariableOffset()));
+    private void addSymbol(int name, boolean isInitialized, boolean isConstant, int curToken) throws CompileError {
+        var symbol = new Element();
+        symbol.id = name;
+        symbol.name = tokens.valueStringAt(curToken);
+        symbol.isConst = isConstant;
+        symbol.isInitialized = isInitialized;
+        declare(symbol, curToken);
+    }
+
+    /**
+     * 在当前作用域声明 symbol
+     *
+     * @param curToken 当前 token（报错用）
+     * @throws AnalyzeError 如果同一作用域里重复定义了则抛异常
+     */
+    private void declare(Element symbol, int curToken) throws CompileError {
+        if (!symbols.declare(symbol)) {
+            throw error(ErrorCode.DuplicateDeclaration, curToken);
         }
     }
 
     /**
-     * 设置符号为已赋值
+     * 按编号查找当前可见的符号
      *
-     * @param name   符号名称
-     * @param curPos 当前位置（报错用）
+     * @param name     名字的编号
+     * @param curToken 当前 token（报错用）
+     * @return 符号
      * @throws AnalyzeError 如果未定义则抛异常
      */
-    private void declareSymbol(String name, Pos curPos) throws AnalyzeError {
-        var entry = this.symbolTable.get(name);
-        if (entry == null) {
-            throw new AnalyzeError(ErrorCode.NotDeclared, curPos);
-        } else {
-            entry.setInitialized(true);
+    private Element lookupSymbol(int name, int curToken) throws CompileError {
+        var symbol = symbols.lookup(name);
+        if (symbol == null) {
+            throw error(ErrorCode.NotDeclared, curToken);
         }
+        return symbol;
     }
 
     /**
-     * 获取变量在栈上的偏移
+     * 设置符号为已赋值
      *
-     * @param name   符号名
-     * @param curPos 当前位置（报错用）
-     * @return 栈偏移
+     * @param name   符号名称的编号
+     * @param curToken 当前 token（报错用）
+     * @throws AnalyzeError 如果未定义则抛异常
+     */
+    private void declareSymbol(int name, int curToken) throws CompileError {
+        lookupSymbol(name, curToken).isInitialized = true;
+    }
+
+    /**
+     * 获取变量的槽位
+     *
+     * @param name   符号名的编号
+     * @param curToken 当前 token（报错用）
+     * @return 槽位
      * @throws AnalyzeError
      */
-    private int getOffset(String name, Pos curPos) throws AnalyzeError {
-        var entry = this.symbolTable.get(name);
-        if (entry == null) {
-            throw new AnalyzeError(ErrorCode.NotDeclared, curPos);
-        } else {
-            return entry.getStackOffset();
-        }
+    private int getOffset(int name, int curToken) throws CompileError {
+        return lookupSymbol(name, curToken).slot;
     }
 
     /**
      * 获取变量是否是常量
      *
-     * @param name   符号名
-     * @param curPos 当前位置（报错用）
+     * @param name   符号名的编号
+     * @param curToken 当前 token（报错用）
      * @return 是否为常量
      * @throws AnalyzeError
      */
-    private boolean isConstant(String name, Pos curPos) throws AnalyzeError {
-        var entry = this.symbolTable.get(name);
-        if (entry == null) {
-            throw new AnalyzeError(ErrorCode.NotDeclared, curPos);
-        } else {
-            return entry.isConstant();
-        }
+    private boolean isConstant(int name, int curToken) throws CompileError {
+        return lookupSymbol(name, curToken).isConst;
     }
 
 
     private void analyseProgram() throws CompileError {
-        Standard=new Zone();
-        Standard.level_now=0;
-        ArrayList<Element> BASE=new ArrayList();
-        Standard.SYM.add(BASE);
+        symbols=new SymbolTable(tokens.getInterner());
 
-        if(nextIf(TokenType.EOF)!=null)
+        if(nextIf(TokenType.EOF)!=-1)
         {
-            System.out.println("好的，你是个空函数");
+            items = new ArrayList<>();
             return ;
         }
-        var sign=peek();
-        while(sign.getTokenType()==TokenType.CONST_KW||sign.getTokenType()==TokenType.LET_KW||sign.getTokenType()==TokenType.FN_KW)
+        var program = new ArrayList<TopLevelItem>();
+        while(isTopLevelStart(peek()))
         {
-            if(sign.getTokenType()==TokenType.FN_KW)
-                analyseFunction();
-            else if(sign.getTokenType()==TokenType.LET_KW)
-                analyseLetdeclstmt();
-            else
-                analyseConstdeclstmt();
-
-            sign=peek();
+            program.add(analyseTopLevelItem());
         }
 
         expect(TokenType.EOF);
+        items = program;
     }
 
-    private void analyseFunction() throws CompileError {
+    private static boolean isTopLevelStart(TokenType sign) {
+        return in(ITEM_FIRST, sign);
+    }
+
+    private TopLevelItem analyseTopLevelItem() throws CompileError {
+        var item = new TopLevelItem();
+        item.start = cursor;
+        // 每个顶层声明一棵语法树
+        ast = new Ast(tokens, cursor);
+        var sign=peek();
+        int root;
+        if(sign==TokenType.FN_KW)
+            root=analyseFunction(item);
+        else if(sign==TokenType.LET_KW)
+            root=analyseLetdeclstmt();
+        else
+            root=analyseConstdeclstmt();
+        ast.setRoot(root);
+        item.symbol = symbols.lookup(tokens.identAt(item.start + 1));
+        new TypeChecker(symbols, ast, item.symbol).check();
+        item.ast = ast;
+        item.end = cursor;
+        return item;
+    }
+
+    private int analyseFunction(TopLevelItem item) throws CompileError {
         expect(TokenType.FN_KW);
 
         var Funcname=expect(TokenType.IDENT);
@@ -229,29 +471,39 @@ public final class Analyser {
         Element tmp=new Element();
         tmp.isConst=false;
         tmp.isGlobal=true;
-        tmp.name=Funcname.getValueString();
-        Standard.SYM.get(0).add(tmp);//第0层，放函数和全局变量
-        System.out.println(tmp+"当前层数"+Standard.level_now);
+        tmp.id=tokens.identAt(Funcname);
+        tmp.name=tokens.valueStringAt(Funcname);
+        tmp.isFunction=true;
+        tmp.params=new ArrayList<>();
+        declare(tmp,Funcname);//第0层，放函数和全局变量，先登记好让函数体里能递归调用
 
-        Standard.level_now++;
-        ArrayList<Element> Nextlevel=new ArrayList();
-        Standard.SYM.add(Nextlevel);
+        symbols.enterFunction();
+        function=tmp;
 
 
         expect(TokenType.L_PAREN);
 
-        if(peek().getTokenType()!=TokenType.R_PAREN)
+        int params=ast.beginList();
+        if(peek()!=TokenType.R_PAREN)
         {
             analyseFunctionparamlist();
         }
+        int paramCount=ast.listSize(params);
+        int paramStart=ast.endList(params);
             expect(TokenType.R_PAREN);
             expect(TokenType.ARROW);
 
         var Functype=expect(TokenType.IDENT);
-        tmp.type=Functype.getValueString();
+        tmp.type=tokens.valueStringAt(Functype);
+        int returnType=ast.add(NodeKind.TYPE, Functype, Ast.NONE, Ast.NONE);
 
 
-            analyseBlockstmt();
+        int body=analyseBlockstmt();
+        tmp.locals=symbols.exitFunction();
+        function=null;
+        int node=ast.add(NodeKind.FUNCTION, Funcname, ast.addExtra(paramStart, paramStart + paramCount, returnType), body);
+        ast.setRef(node, tmp);
+        return node;
     }
 
 
@@ -259,15 +511,15 @@ public final class Analyser {
     //function_param_list -> function_param (',' function_param)*
     private void analyseFunctionparamlist() throws CompileError
     {
-        analyseFunctionparam();
+        ast.listAdd(analyseFunctionparam());
         while (check(TokenType.COMMA))
         {
             expect(TokenType.COMMA);
-            analyseFunctionparam();
+            ast.listAdd(analyseFunctionparam());
         }
     }
 
-    private void analyseFunctionparam() throws CompileError{
+    private int analyseFunctionparam() throws CompileError{
 
         int sign=0;//是不是Const？
 
@@ -286,264 +538,386 @@ public final class Analyser {
             para.isConst=true;
         para.isPara=true;
         para.isGlobal=false;
-        para.type=tmp2.getValueString();
-        para.name=tmp.getValueString();
-        System.out.println(para+"当前层数"+Standard.level_now);
-        Standard.SYM.get(Standard.level_now).add(para);
+        para.type=tokens.valueStringAt(tmp2);
+        para.id=tokens.identAt(tmp);
+        para.name=tokens.valueStringAt(tmp);
+        declare(para,tmp);
+        function.params.add(para);
+
+        int node=ast.add(NodeKind.PARAM, tmp, ast.add(NodeKind.TYPE, tmp2, Ast.NONE, Ast.NONE), sign);
+        ast.setRef(node, para);
+        return node;
     }
 
 
-    private void analyseBlockstmt() throws CompileError
+    //block_stmt -> '{' stmt* '}'
+    //嵌套的块、if 和 while 不递归，而是在 frames 上压一帧；块结束时把结果交给下面一帧，
+    //所以嵌套深度只受堆的大小限制
+    private int analyseBlockstmt() throws CompileError
     {
-        expect(TokenType.L_BRACE);
-
-        var sign=peek();
-        if(sign.getTokenType()==TokenType.R_BRACE)
+        int bottom=frameTop;
+        int outerLoops=loops;
+        loops=0;
+        try
         {
-            expect(TokenType.R_BRACE);
-            return;
-        }
-        else{
-            while(sign.getTokenType()==TokenType.MINUS||sign.getTokenType()==TokenType.IDENT||
-                    sign.getTokenType()==TokenType.UINT_LITERAL||sign.getTokenType()==TokenType.CHAR_LITERAL||
-                    sign.getTokenType()==TokenType.STRING_LITERAL||sign.getTokenType()==TokenType.DOUBLE_LITERAL||
-                    sign.getTokenType()==TokenType.L_PAREN||sign.getTokenType()==TokenType.LET_KW||
-                    sign.getTokenType()==TokenType.IF_KW||sign.getTokenType()==TokenType.WHILE_KW||
-                    sign.getTokenType()==TokenType.BREAK_KW||sign.getTokenType()==TokenType.CONTINUE_KW||
-                    sign.getTokenType()==TokenType.CONST_KW||sign.getTokenType()==TokenType.RETURN_KW||
-                    sign.getTokenType()==TokenType.SEMICOLON||sign.getTokenType()==TokenType.L_BRACE)
+            openBlock();
+            while(true)
             {
-                analyseStmt();
-                sign=peek();
+                var sign=peek();
+                if(!in(STMT_FIRST, sign))
+                {
+                    expect(TokenType.R_BRACE);
+                    int done=reduce(closeBlock(), bottom);
+                    if(done!=Ast.NONE)
+                        return done;
+                }
+                else if(sign==TokenType.L_BRACE)
+                    openBlock();
+                else if(sign==TokenType.IF_KW)
+                    openIf(Ast.NONE);
+                else if(sign==TokenType.WHILE_KW)
+                {
+                    var w=expect(TokenType.WHILE_KW);
+                    int cond=analyseExpr();
+                    pushFrame(FRAME_WHILE, w, cond);
+                    loops++;
+                    openBlock();
+                }
+                else
+                    ast.listAdd(analyseSimplestmt());
             }
-            expect(TokenType.R_BRACE);
+        }
+        finally
+        {
+            frameTop=bottom;
+            loops=outerLoops;
         }
     }
 
-    private void analyseStmt() throws CompileError
+    private void pushFrame(int kind, int a, int b)
     {
-        var sign=peek();
-        if(sign.getTokenType()==TokenType.MINUS||sign.getTokenType()==TokenType.IDENT||
-                sign.getTokenType()==TokenType.UINT_LITERAL||sign.getTokenType()==TokenType.CHAR_LITERAL||
-                sign.getTokenType()==TokenType.STRING_LITERAL||sign.getTokenType()==TokenType.DOUBLE_LITERAL||
-                sign.getTokenType()==TokenType.L_PAREN)
-            analyseExprstmt();
-
-        else if(sign.getTokenType()==TokenType.LET_KW)
-            analyseLetdeclstmt();
-
-        else if(sign.getTokenType()==TokenType.CONST_KW)
-            analyseConstdeclstmt();
-
-        else if(sign.getTokenType()==TokenType.IF_KW)
-            analyseIfstmt();
-
-        else if(sign.getTokenType()==TokenType.WHILE_KW)
-            analyseWhilestmt();
-
-        else if(sign.getTokenType()==TokenType.BREAK_KW)
-            analyseBreakstmt();
-
-        else if(sign.getTokenType()==TokenType.CONTINUE_KW)
-            analyseContinuestmt();
-
-        else if(sign.getTokenType()==TokenType.RETURN_KW)
-            analyseReturnstmt();
-
-        else if(sign.getTokenType()==TokenType.L_BRACE)
-            analyseBlockstmt();
+        if(frameTop+3>frames.length)
+            frames=Arrays.copyOf(frames, frames.length*2);
+        frames[frameTop]=kind;
+        frames[frameTop+1]=a;
+        frames[frameTop+2]=b;
+        frameTop+=3;
+    }
 
-        else if(sign.getTokenType()==TokenType.SEMICOLON)
-            analyseEmptystmt();
+    private void openBlock() throws CompileError
+    {
+        var lbrace=expect(TokenType.L_BRACE);
+        symbols.enterScope();
+        pushFrame(FRAME_BLOCK, lbrace, ast.beginList());
     }
 
-    private void analyseExprstmt() throws CompileError{
-        analyseExpr();
-        expect(TokenType.SEMICOLON);
+    private int closeBlock()
+    {
+        symbols.exitScope();
+        frameTop-=3;
+        int stmts=frames[frameTop+2];
+        int count=ast.listSize(stmts);
+        int start=ast.endList(stmts);
+        return ast.add(NodeKind.BLOCK, frames[frameTop+1], start, start + count);
     }
 
+    //if_stmt -> 'if' expr block_stmt ('else' (block_stmt | if_stmt))?
+    //else if 挂在上一个 if 的 else 分支上，root 是最外层的 if，为 NONE 表示这就是最外层
+    private int openIf(int root) throws CompileError
+    {
+        var iftoken=expect(TokenType.IF_KW);
+        int cond=analyseExpr();
+        int node=ast.add(NodeKind.IF, iftoken, cond, ast.addExtra(Ast.NONE, Ast.NONE));
+        pushFrame(FRAME_THEN, root==Ast.NONE ? node : root, node);
+        openBlock();
+        return node;
+    }
 
-    private void analyseIfstmt() throws CompileError{
-        expect(TokenType.IF_KW);
-        analyseExpr();
-        analyseBlockstmt();
-        while(check(TokenType.ELSE_KW))
+    /**
+     * 刚结束的块 node 交给栈顶的帧，能归约的帧一路弹出
+     *
+     * @return 栈退回到 bottom 时是最外层的块，否则返回 NONE，表示还要继续读语句
+     */
+    private int reduce(int node, int bottom) throws CompileError
+    {
+        while(frameTop>bottom)
         {
-            expect(TokenType.ELSE_KW);
-            if(check(TokenType.IF_KW))
+            int kind=frames[frameTop-3];
+            int a=frames[frameTop-2];
+            int b=frames[frameTop-1];
+            if(kind==FRAME_BLOCK)
+            {
+                ast.listAdd(node);
+                return Ast.NONE;
+            }
+            frameTop-=3;
+            if(kind==FRAME_WHILE)
+            {
+                node=ast.add(NodeKind.WHILE, a, b, node);
+                loops--;
+            }
+            else if(kind==FRAME_ELSE)
             {
-                expect(TokenType.IF_KW);
-                analyseExpr();
-                analyseBlockstmt();
+                ast.setExtra(ast.rhs(b) + 1, node);
+                node=a;
             }
             else
             {
-                    analyseBlockstmt();
-                    break;
+                ast.setExtra(ast.rhs(b), node);
+                if(!check(TokenType.ELSE_KW))
+                {
+                    node=a;
+                    continue;
+                }
+                expect(TokenType.ELSE_KW);
+                if(check(TokenType.IF_KW))
+                {
+                    // 新的 if 挂到 b 的 else 分支上，它的帧顶替 b 的帧
+                    ast.setExtra(ast.rhs(b) + 1, openIf(a));
+                    return Ast.NONE;
+                }
+                pushFrame(FRAME_ELSE, a, b);
+                openBlock();
+                return Ast.NONE;
             }
+        }
+        return node;
+    }
 
+    //其余的语句里没有块，直接读完
+    private int analyseSimplestmt() throws CompileError
+    {
+        var sign=peek();
+        if(in(EXPR_FIRST, sign))
+            return analyseExprstmt();
+        switch(sign)
+        {
+            case LET_KW:
+                return analyseLetdeclstmt();
+            case CONST_KW:
+                return analyseConstdeclstmt();
+            case BREAK_KW:
+            case CONTINUE_KW:
+                if(loops==0)
+                    throw error(ErrorCode.NotInLoop, cursor);
+                return sign==TokenType.BREAK_KW ? analyseBreakstmt() : analyseContinuestmt();
+            case RETURN_KW:
+                return analyseReturnstmt();
+            default:
+                return analyseEmptystmt();
         }
     }
 
+    private int analyseExprstmt() throws CompileError{
+        int first=cursor;
+        int expr=analyseExpr();
+        expect(TokenType.SEMICOLON);
+        return ast.add(NodeKind.EXPR_STMT, first, expr, Ast.NONE);
+    }
 
-    private void analyseReturnstmt() throws CompileError{
-        expect(TokenType.RETURN_KW);
 
+    private int analyseReturnstmt() throws CompileError{
+        var ret=expect(TokenType.RETURN_KW);
+
+        int value=Ast.NONE;
         if(!check(TokenType.SEMICOLON))
         {
-            analyseExpr();
+            value=analyseExpr();
         }
         expect(TokenType.SEMICOLON);
+        return ast.add(NodeKind.RETURN, ret, value, Ast.NONE);
     }
 
-    private void analyseEmptystmt() throws CompileError{expect(TokenType.SEMICOLON);}
-    private void analyseContinuestmt() throws CompileError {expect(TokenType.CONTINUE_KW);expect(TokenType.SEMICOLON);}
-    private void analyseBreakstmt() throws CompileError {expect(TokenType.BREAK_KW);expect(TokenType.SEMICOLON);}
-
-    private void analyseWhilestmt() throws CompileError{
-        expect(TokenType.WHILE_KW);
-        analyseExpr();
-        analyseBlockstmt();
-    }
+    private int analyseEmptystmt() throws CompileError{return ast.add(NodeKind.EMPTY, expect(TokenType.SEMICOLON), Ast.NONE, Ast.NONE);}
+    private int analyseContinuestmt() throws CompileError {var x=expect(TokenType.CONTINUE_KW);expect(TokenType.SEMICOLON);return ast.add(NodeKind.CONTINUE, x, Ast.NONE, Ast.NONE);}
+    private int analyseBreakstmt() throws CompileError {var x=expect(TokenType.BREAK_KW);expect(TokenType.SEMICOLON);return ast.add(NodeKind.BREAK, x, Ast.NONE, Ast.NONE);}
 
-    private void analyseLetdeclstmt() throws CompileError{
+    private int analyseLetdeclstmt() throws CompileError{
         //let_decl_stmt -> 'let' IDENT ':' ty ('=' expr)? ';'
         expect(TokenType.LET_KW);
-        expect(TokenType.IDENT);
+        var name=expect(TokenType.IDENT);
         expect(TokenType.COLON);
-        expect(TokenType.IDENT);
+        var ty=expect(TokenType.IDENT);
 
+        int init=Ast.NONE;
         var tmp=peek();
-        if(tmp.getTokenType()==TokenType.ASSIGN)
+        if(tmp==TokenType.ASSIGN)
         {
             expect(TokenType.ASSIGN);
-            analyseExpr();
+            init=analyseExpr();
         }
         expect(TokenType.SEMICOLON);
+        // 初始值里的同名变量还是外层的那个，所以读完初始值再登记
+        int node=ast.add(NodeKind.LET, name, ast.add(NodeKind.TYPE, ty, Ast.NONE, Ast.NONE), init);
+        ast.setRef(node, declareVariable(name, ty, false, init!=Ast.NONE));
+        return node;
     }
 
-    private void analyseConstdeclstmt() throws CompileError{
+    private int analyseConstdeclstmt() throws CompileError{
         //const_decl_stmt -> 'const' IDENT ':' ty '=' expr ';'
         expect(TokenType.CONST_KW);
-        expect(TokenType.IDENT);
+        var name=expect(TokenType.IDENT);
         expect(TokenType.COLON);
-        expect(TokenType.IDENT);
+        var ty=expect(TokenType.IDENT);
         expect(TokenType.ASSIGN);
-        analyseExpr();
+        int init=analyseExpr();
         expect(TokenType.SEMICOLON);
+        int node=ast.add(NodeKind.CONST, name, ast.add(NodeKind.TYPE, ty, Ast.NONE, Ast.NONE), init);
+        ast.setRef(node, declareVariable(name, ty, true, true));
+        return node;
+    }
+
+    private Element declareVariable(int name, int ty, boolean isConst, boolean isInitialized) throws CompileError{
+        Element var=new Element();
+        var.id=tokens.identAt(name);
+        var.name=tokens.valueStringAt(name);
+        var.type=tokens.valueStringAt(ty);
+        var.isConst=isConst;
+        var.isInitialized=isInitialized;
+        declare(var,name);
+        return var;
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-    private void analyseExpr() throws CompileError{
+    //expr -> assign_expr | unary_expr (binary_operator unary_expr | 'as' ty)*
+    private int analyseExpr() throws CompileError{
+        //assign_expr -> l_expr '=' expr  lexpr就是个IDENT
+        if(check(TokenType.IDENT)&&tokens.typeAt(cursor+1)==TokenType.ASSIGN)
+            return analyseAssignexpr();
+
+        return analyseNEW(1);
+    }
+
+    //binary_operator -> '+' | '-' | '*' | '/' | '==' | '!=' | '<' | '>' | '<=' | '>='
+    //优先级爬升：只处理优先级不低于 minPrecedence 的运算符，同一层的运算符在循环里向左结合，
+    //只有右操作数里更紧的运算符才递归，所以递归深度只和优先级的层数有关，和表达式长度无关
+    private int analyseNEW(int minPrecedence) throws CompileError
+    {
+        int lhs=analyseUnaryexpr();
+        while(true)
+        {
+            var tt=peek();
+            if(tt==TokenType.AS_KW&&AS_PRECEDENCE>=minPrecedence)
+            {
+                // as 是后缀运算，直接作用在左边已经归约好的操作数上
+                next();
+                var ty=expect(TokenType.IDENT);
+                lhs=ast.add(NodeKind.AS, ty, lhs, Ast.NONE);
+                continue;
+            }
+            int precedence=PRECEDENCE[tt.ordinal()];
+            if(precedence==0||precedence<minPrecedence)
+                return lhs;
+            var op=next();
+            int rhs=analyseNEW(precedence+1);
+            lhs=ast.add(NodeKind.BINARY, op, lhs, rhs);
+        }
+    }
+
+    //unary_expr -> negate_expr | call_expr | ident_expr | literal_expr | group_expr
+    private int analyseUnaryexpr() throws CompileError{
         var tmp=peek();
-        if(tmp.getTokenType()==TokenType.MINUS)//negate_expr -> '-' expr
+        if(tmp==TokenType.MINUS)//negate_expr -> '-' unary_expr
         {
-            analyseNegateexpr();
+            return analyseNegateexpr();
         }
-        else if(tmp.getTokenType()==TokenType.IDENT)
-            //assign_expr -> l_expr '=' expr  lexpr就是个IDENT
+        else if(tmp==TokenType.IDENT)
             //call_expr -> IDENT '(' call_param_list? ')'
             //ident_expr -> IDENT
         {
             var keypoint=expect(TokenType.IDENT);
 
-            var tmp2=peek();
-            if(tmp2.getTokenType()==TokenType.ASSIGN)
-                analyseAssignexpr();
-            else if(tmp2.getTokenType()==TokenType.L_PAREN)
-                analyseCallexpr();
+            if(check(TokenType.L_PAREN))
+                return analyseCallexpr(keypoint);
             else
-                {
-
-                }//说明他就是一个identexpr
+                return analyseIdentexpr(keypoint);//说明他就是一个identexpr
 
         }
         //literal_expr -> UINT_LITERAL | DOUBLE_LITERAL | STRING_LITERAL | CHAR_LITERAL
-        else if(tmp.getTokenType()==TokenType.UINT_LITERAL||tmp.getTokenType()==TokenType.CHAR_LITERAL||
-                tmp.getTokenType()==TokenType.DOUBLE_LITERAL||tmp.getTokenType()==TokenType.STRING_LITERAL)
+        else if(in(LITERAL_FIRST, tmp))
         {
-            analyseLiteralexpr();
+            return analyseLiteralexpr();
         }
         //group_expr -> '(' expr ')'
-        else if(tmp.getTokenType()==TokenType.L_PAREN)
+        else if(tmp==TokenType.L_PAREN)
         {
-            analyseGroupexpr();
+            return analyseGroupexpr();
         }
         else
-            throw new Error("你这个Expr少了前面的零部件啊."+tmp.getTokenType()+tmp.getStartPos()+next()+next());
-
-        analyseNEW();
-    }
-
-    //binary_operator -> '+' | '-' | '*' | '/' | '==' | '!=' | '<' | '>' | '<=' | '>='
-    //NEWE -> 	(binary_operator expr | ‘as’ ty)   NEWE	| NULL(空)
-    private void analyseNEW() throws CompileError
-    {
-        if(check(TokenType.AS_KW))
-        {
-            expect(TokenType.AS_KW);
-            expect(TokenType.IDENT);
-            analyseNEW();
-        }
-        else if(check(TokenType.PLUS)||check(TokenType.MINUS)||check(TokenType.MUL)||check(TokenType.DIV)||
-                check(TokenType.EQ)||check(TokenType.NEQ)||check(TokenType.LT)||check(TokenType.GT)||
-                check(TokenType.LE)||check(TokenType.GE))
-        {
-            next();
-            analyseExpr();
-            analyseNEW();
-        }
-        else {}
+            throw new Error("你这个Expr少了前面的零部件啊."+tmp+tokens.startPosAt(cursor));
     }
 
 ///////////这里面的三个都是少了开头的IDENT的！！！！！
 
     //assign_expr -> l_expr '=' expr  lexpr就是个IDENT
     //call_expr -> IDENT '(' call_param_list? ')'
-    private void analyseAssignexpr() throws CompileError{
-            expect(TokenType.ASSIGN);
-            analyseExpr();
+    private int analyseAssignexpr() throws CompileError{
+            var name=expect(TokenType.IDENT);
+            int lhs=analyseIdentexpr(name);
+            var assign=expect(TokenType.ASSIGN);
+            return ast.add(NodeKind.ASSIGN, assign, lhs, analyseExpr());
     }
 
-    private void analyseCallexpr() throws CompileError{
+    private int analyseCallexpr(int name) throws CompileError{
 
         expect(TokenType.L_PAREN);
+        int args=ast.beginList();
         if(!check(TokenType.R_PAREN))
         {
             analyseCallparamlist();
         }
         expect(TokenType.R_PAREN);
+        int count=ast.listSize(args);
+        int start=ast.endList(args);
+        int node=ast.add(NodeKind.CALL, name, start, start + count);
+        ast.setRef(node, lookupSymbol(tokens.identAt(name), name));
+        return node;
+    }
+
+    //ident_expr -> IDENT，名字在这里就按作用域解析好，块结束以后局部变量就查不到了
+    private int analyseIdentexpr(int name) throws CompileError{
+        int node=ast.add(NodeKind.IDENT, name, Ast.NONE, Ast.NONE);
+        ast.setRef(node, lookupSymbol(tokens.identAt(name), name));
+        return node;
     }
 ///////////这里面的三个都是少了开头的IDENT的！！！！！
 
     //call_param_list -> expr (',' expr)*
     private void analyseCallparamlist() throws CompileError{
-        analyseExpr();
+        ast.listAdd(analyseExpr());
         while(check(TokenType.COMMA))
         {
             expect(TokenType.COMMA);
-            analyseExpr();
+            ast.listAdd(analyseExpr());
         }
     }
 
 
-    //negate_expr -> '-' expr
-    private void analyseNegateexpr() throws CompileError{
-        expect(TokenType.MINUS);
-        analyseExpr();
+    //negate_expr -> '-' unary_expr
+    private int analyseNegateexpr() throws CompileError{
+        // 连续的 '-' 先全部读掉，再从里往外套，不用每个 '-' 递归一层
+        int first=expect(TokenType.MINUS);
+        int last=first;
+        while(check(TokenType.MINUS))
+            last=next();
+        int node=analyseUnaryexpr();
+        for(int minus=last;minus>=first;minus--)
+            node=ast.add(NodeKind.NEGATE, minus, node, Ast.NONE);
+        return node;
     }
 
 
     //literal_expr -> UINT_LITERAL | DOUBLE_LITERAL | STRING_LITERAL | CHAR_LITERAL
-    private void analyseLiteralexpr() throws CompileError{
-        next();
+    private int analyseLiteralexpr() throws CompileError{
+        return ast.add(NodeKind.LITERAL, next(), Ast.NONE, Ast.NONE);
     }
 
     //group_expr -> '(' expr ')'
-    private void analyseGroupexpr() throws CompileError{
+    private int analyseGroupexpr() throws CompileError{
         expect(TokenType.L_PAREN);
-        analyseExpr();
+        int inner=analyseExpr();
         expect(TokenType.R_PAREN);
+        return inner;
     }
 
 
@@ -564,11 +938,11 @@ public final class Analyser {
     private void analyseConstantDeclaration() throws CompileError {
         // 示例函数，示例如何解析常量声明
         // 如果下一个 token 是 const 就继续
-        while (nextIf(TokenType.Const) != null) {
+        while (nextIf(TokenType.Const) != -1) {
             // 变量名
             var nameToken = expect(TokenType.Ident);
             instructions.add(new Instruction(Operation.LIT, 0));
-            addSymbol(nameToken.getValueString(),false,true,nameToken.getStartPos());
+            addSymbol(tokens.identAt(nameToken),false,true,nameToken);
 
 
             // 等于号
@@ -577,32 +951,32 @@ public final class Analyser {
             // 常表达式
             analyseConstantExpression();
 
-            int bias=getOffset(nameToken.getValueString(),nameToken.getStartPos());
+            int bias=getOffset(tokens.identAt(nameToken),nameToken);
             instructions.add(new Instruction(Operation.STO,bias));
 
-            declareSymbol(nameToken.getValueString(),nameToken.getStartPos());
+            declareSymbol(tokens.identAt(nameToken),nameToken);
             // 分号
             expect(TokenType.Semicolon);
         }
     }
 
     private void analyseVariableDeclaration() throws CompileError {
-        while(nextIf(TokenType.Var)!=null)
+        while(nextIf(TokenType.Var)!=-1)
         {
             var wor=expect(TokenType.Ident);
 
             instructions.add(new Instruction(Operation.LIT, 0));
 
-            addSymbol(wor.getValueString(),false,false,wor.getStartPos());
+            addSymbol(tokens.identAt(wor),false,false,wor);
 
             if(check(TokenType.Equal))
             {
                 next();
                 analyseExpression();
-                int bias=getOffset(wor.getValueString(),wor.getStartPos());
+                int bias=getOffset(tokens.identAt(wor),wor);
                 instructions.add(new Instruction(Operation.STO,bias));
 
-                declareSymbol(wor.getValueString(),wor.getStartPos());
+                declareSymbol(tokens.identAt(wor),wor);
             }
             expect(TokenType.Semicolon);
         }
@@ -646,7 +1020,7 @@ public final class Analyser {
         {
             instructions.add(new Instruction(Operation.LIT, 0));
 
-            instructions.add(new Instruction(Operation.LIT, (Integer)next().getValue()));
+            instructions.add(new Instruction(Operation.LIT, (Integer)tokens.valueAt(next())));
             if(sig==1)
             {
                 instructions.add(new Instruction(Operation.SUB));
@@ -682,14 +1056,14 @@ public final class Analyser {
     }
 
     private void analyseAssignmentStatement() throws CompileError {
-        Token x=expect(TokenType.Ident);
-        if(x!=null)
+        int x=expect(TokenType.Ident);
+        if(x!=-1)
         {
             expect(TokenType.Equal);
             analyseExpression();
-            int bias=getOffset(x.getValueString(),x.getStartPos());//看看是否定义过
-            if(isConstant(x.getValueString(),x.getStartPos()))
-                throw new AnalyzeError(ErrorCode.AssignToConstant, x.getStartPos());//常量不能再赋值了
+            int bias=getOffset(tokens.identAt(x),x);//看看是否定义过
+            if(isConstant(tokens.identAt(x),x))
+                throw error(ErrorCode.AssignToConstant, x);//常量不能再赋值了
             instructions.add(new Instruction(Operation.STO,bias));
             expect(TokenType.Semicolon);
         }
@@ -728,7 +1102,7 @@ public final class Analyser {
 
     private void analyseFactor() throws CompileError {
         boolean negate;
-        if (nextIf(TokenType.Minus) != null) {
+        if (nextIf(TokenType.Minus) != -1) {
             negate = true;
             // 计算结果需要被 0 减
             instructions.add(new Instruction(Operation.LIT, 0));
@@ -739,24 +1113,24 @@ public final class Analyser {
 
         if (check(TokenType.Ident)){
             // 调用相应的处理函数
-            Token x=nextIf(TokenType.Ident);
+            int x=nextIf(TokenType.Ident);
             //查看是否定义过；
-            int bias=getOffset(x.getValueString(),x.getStartPos());
+            int bias=getOffset(tokens.identAt(x),x);
             //查看是否付了值
-            var entry = this.symbolTable.get(x.getValueString());
+            var entry = lookupSymbol(tokens.identAt(x),x);
             if(entry.isInitialized)
             {
                 instructions.add(new Instruction(Operation.LOD,bias));
             }
             else
             {
-                throw new AnalyzeError(ErrorCode.NotInitialized, x.getStartPos());
+                throw error(ErrorCode.NotInitialized, x);
             }
 
         } else if (check(TokenType.Uint)) {
             // 调用相应的处理函数
-            Token x=nextIf(TokenType.Uint);
-            instructions.add(new Instruction(Operation.LIT, (Integer)x.getValue()));
+            int x=nextIf(TokenType.Uint);
+            instructions.add(new Instruction(Operation.LIT, (Integer)tokens.valueAt(x)));
 
         } else if (check(TokenType.LParen)) {
             // 调用相应的处理函数
@@ -769,7 +1143,7 @@ public final class Analyser {
             expect(TokenType.RParen);
         } else {
             // 都不是，摸了
-            throw new ExpectedTokenError(List.of(TokenType.Ident, TokenType.Uint, TokenType.LParen), next());
+            throw new ExpectedTokenError(List.of(TokenType.Ident, TokenType.Uint, TokenType.LParen), tokens.tokenAt(next()));
         }
 
         if (negate) {
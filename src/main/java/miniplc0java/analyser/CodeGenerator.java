@@ -0,0 +1,378 @@
+package miniplc0java.analyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import miniplc0java.ast.Ast;
+import miniplc0java.ast.NodeKind;
+import miniplc0java.ast.Type;
+import miniplc0java.error.AnalyzeError;
+import miniplc0java.error.CompileError;
+import miniplc0java.error.ErrorCode;
+import miniplc0java.error.TokenizeError;
+import miniplc0java.instruction.FunctionDef;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.instruction.Program;
+import miniplc0java.tokenizer.TokenBuffer;
+import miniplc0java.tokenizer.TokenType;
+
+/**
+ * 把类型检查过的语法树翻译成指令
+ *
+ * 每个函数单独一段指令，跳转目标是段内的下标。全局变量的初始化按声明顺序放进最后的入口函数，
+ * 入口函数最后调用 main。遍历语法树用显式的栈，和 Analyser 解析语句时一样，
+ * 很深的块和很长的运算符链都不会用掉 JVM 线程栈
+ */
+class CodeGenerator {
+    // 内置函数的指令，下标是 SymbolTable 里内置函数的编号
+    private static final Operation[] BUILTIN_OPS = {
+            Operation.GETINT, Operation.GETDOUBLE, Operation.GETCHAR, Operation.PUTINT, Operation.PUTDOUBLE,
+            Operation.PUTCHAR, Operation.PUTSTR, Operation.PUTLN,
+    };
+
+    private final Program program = new Program();
+    private final TokenBuffer tokens;
+
+    private Ast ast;
+    private ArrayList<Instruction> code;
+
+    // 遍历栈，每帧四格 {节点, 状态, a, b}，a、b 记着还没回填的跳转之类
+    private int[] frames = new int[64];
+    private int frameTop = 0;
+
+    // 正在生成的循环，每个循环两格 {开头的下标, 它的 break 在 breaks 里的起点}
+    private int[] loops = new int[16];
+    private int loopTop = 0;
+    private int[] breaks = new int[16];
+    private int breakTop = 0;
+
+    /**
+     * @param tokens 整个源码的 token，没有 main 时在文件末尾报错
+     */
+    CodeGenerator(TokenBuffer tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * @param items 顶层声明，按声明顺序排列
+     * @throws AnalyzeError 没有 main 函数时抛出
+     */
+    Program generate(List<TopLevelItem> items) throws CompileError {
+        var start = new ArrayList<Instruction>();
+        Element main = null;
+        int globals = 0;
+        for (var item : items) {
+            ast = item.ast;
+            var symbol = item.symbol;
+            if (symbol.isFunction) {
+                program.addFunction(function(symbol));
+                if (symbol.name.equals("main")) {
+                    main = symbol;
+                }
+                continue;
+            }
+            globals++;
+            int root = ast.root();
+            if (ast.rhs(root) != Ast.NONE) {
+                code = start;
+                emit(root);
+            }
+        }
+        if (main == null) {
+            throw new AnalyzeError(ErrorCode.NoMain, tokens.getSource(), tokens.startAt(tokens.size() - 1));
+        }
+        start.add(new Instruction(Operation.CALL, main.slot));
+        if (!main.type.equals("void")) {
+            start.add(new Instruction(Operation.POP));
+        }
+        start.add(new Instruction(Operation.RET));
+        program.addFunction(new FunctionDef("_start", 0, 0, false, start));
+        program.setGlobals(globals);
+        return program;
+    }
+
+    private FunctionDef function(Element symbol) throws TokenizeError {
+        code = new ArrayList<>();
+        emit(ast.root());
+        return new FunctionDef(symbol.name, symbol.params.size(), symbol.locals, !symbol.type.equals("void"), code);
+    }
+
+    /**
+     * 后序遍历 root 为根的子树并生成指令
+     */
+    private void emit(int root) throws TokenizeError {
+        push(root);
+        while (frameTop > 0) {
+            int frame = frameTop - 4;
+            int node = frames[frame];
+            int state = frames[frame + 1]++;
+            int lhs = ast.lhs(node);
+            int rhs = ast.rhs(node);
+            switch (ast.kind(node)) {
+                case FUNCTION:
+                    if (state == 0) {
+                        push(rhs);
+                    } else {
+                        // void 函数可以走到末尾直接返回，其余的函数类型检查已经保证每条路径都有 return
+                        if (ast.type(ast.extra(lhs + 2)) == Type.VOID) {
+                            add(Operation.RET);
+                        }
+                        pop();
+                    }
+                    break;
+                case BLOCK:
+                    if (lhs + state < rhs) {
+                        push(ast.extra(lhs + state));
+                    } else {
+                        pop();
+                    }
+                    break;
+                case LET:
+                case CONST:
+                    if (rhs == Ast.NONE) {
+                        pop();
+                    } else if (state == 0) {
+                        push(rhs);
+                    } else {
+                        store((Element) ast.ref(node));
+                        pop();
+                    }
+                    break;
+                case EXPR_STMT:
+                    if (state == 0) {
+                        push(lhs);
+                    } else {
+                        if (ast.type(lhs) != Type.VOID) {
+                            add(Operation.POP);
+                        }
+                        pop();
+                    }
+                    break;
+                case IF:
+                    if (state == 0) {
+                        push(lhs);
+                    } else if (state == 1) {
+                        frames[frame + 2] = add(Operation.JZ, -1);
+                        push(ast.extra(rhs));
+                    } else if (state == 2 && ast.extra(rhs + 1) != Ast.NONE) {
+                        int skip = add(Operation.JMP, -1);
+                        patch(frames[frame + 2]);
+                        frames[frame + 3] = skip;
+                        push(ast.extra(rhs + 1));
+                    } else {
+                        patch(frames[frame + (state == 2 ? 2 : 3)]);
+                        pop();
+                    }
+                    break;
+                case WHILE:
+                    if (state == 0) {
+                        frames[frame + 2] = code.size();
+                        push(lhs);
+                    } else if (state == 1) {
+                        frames[frame + 3] = add(Operation.JZ, -1);
+                        enterLoop(frames[frame + 2]);
+                        push(rhs);
+                    } else {
+                        add(Operation.JMP, frames[frame + 2]);
+                        patch(frames[frame + 3]);
+                        exitLoop();
+                        pop();
+                    }
+                    break;
+                case BREAK:
+                    if (breakTop == breaks.length) {
+                        breaks = Arrays.copyOf(breaks, breakTop * 2);
+                    }
+                    breaks[breakTop++] = add(Operation.JMP, -1);
+                    pop();
+                    break;
+                case CONTINUE:
+                    add(Operation.JMP, loops[loopTop - 2]);
+                    pop();
+                    break;
+                case RETURN:
+                    if (state == 0 && lhs != Ast.NONE) {
+                        push(lhs);
+                    } else {
+                        add(Operation.RET);
+                        pop();
+                    }
+                    break;
+                case ASSIGN:
+                    if (state == 0) {
+                        push(rhs);
+                    } else {
+                        store((Element) ast.ref(lhs));
+                        pop();
+                    }
+                    break;
+                case BINARY:
+                    if (state < 2) {
+                        push(state == 0 ? lhs : rhs);
+                    } else {
+                        add(binary(ast.tokens().typeAt(ast.token(node)), ast.type(lhs) == Type.DOUBLE));
+                        pop();
+                    }
+                    break;
+                case NEGATE:
+                    if (state == 0) {
+                        push(lhs);
+                    } else {
+                        add(ast.type(node) == Type.DOUBLE ? Operation.DNEG : Operation.NEG);
+                        pop();
+                    }
+                    break;
+                case AS:
+                    if (state == 0) {
+                        push(lhs);
+                    } else {
+                        var from = ast.type(lhs);
+                        var to = ast.type(node);
+                        if (from == Type.INT && to == Type.DOUBLE) {
+                            add(Operation.ITOD);
+                        } else if (from == Type.DOUBLE && to == Type.INT) {
+                            add(Operation.DTOI);
+                        }
+                        pop();
+                    }
+                    break;
+                case CALL:
+                    if (lhs + state < rhs) {
+                        push(ast.extra(lhs + state));
+                    } else {
+                        var callee = (Element) ast.ref(node);
+                        if (callee.isBuiltin) {
+                            add(BUILTIN_OPS[callee.slot]);
+                        } else {
+                            add(Operation.CALL, callee.slot);
+                        }
+                        pop();
+                    }
+                    break;
+                case IDENT:
+                    load((Element) ast.ref(node));
+                    pop();
+                    break;
+                case LITERAL:
+                    literal(ast.token(node));
+                    pop();
+                    break;
+                case CONSTANT:
+                    add(ast.type(node) == Type.DOUBLE ? Operation.LITD : Operation.LIT, ast.constant(node));
+                    pop();
+                    break;
+                default:
+                    pop();
+                    break;
+            }
+        }
+    }
+
+    private void literal(int token) throws TokenizeError {
+        var tokens = ast.tokens();
+        var value = tokens.valueAt(token);
+        switch (tokens.typeAt(token)) {
+            case UINT_LITERAL:
+                add(Operation.LIT, (Long) value);
+                break;
+            case CHAR_LITERAL:
+                add(Operation.LIT, (Character) value);
+                break;
+            case DOUBLE_LITERAL:
+                code.add(Instruction.ofDouble((Double) value));
+                break;
+            default:
+                // 字符串字面量的值是它在常量表里的编号
+                add(Operation.LIT, program.addString((String) value));
+                break;
+        }
+    }
+
+    private static Operation binary(TokenType op, boolean isDouble) {
+        switch (op) {
+            case PLUS:
+                return isDouble ? Operation.DADD : Operation.ADD;
+            case MINUS:
+                return isDouble ? Operation.DSUB : Operation.SUB;
+            case MUL:
+                return isDouble ? Operation.DMUL : Operation.MUL;
+            case DIV:
+                return isDouble ? Operation.DDIV : Operation.DIV;
+            case EQ:
+                return isDouble ? Operation.DEQ : Operation.EQ;
+            case NEQ:
+                return isDouble ? Operation.DNE : Operation.NE;
+            case LT:
+                return isDouble ? Operation.DLT : Operation.LT;
+            case GT:
+                return isDouble ? Operation.DGT : Operation.GT;
+            case LE:
+                return isDouble ? Operation.DLE : Operation.LE;
+            case GE:
+                return isDouble ? Operation.DGE : Operation.GE;
+            default:
+                throw new Error("not a binary operator: " + op);
+        }
+    }
+
+    private void load(Element symbol) {
+        add(symbol.isGlobal ? Operation.LOADG : symbol.isPara ? Operation.LOADA : Operation.LOADL, symbol.slot);
+    }
+
+    private void store(Element symbol) {
+        add(symbol.isGlobal ? Operation.STOREG : symbol.isPara ? Operation.STOREA : Operation.STOREL, symbol.slot);
+    }
+
+    private void enterLoop(int start) {
+        if (loopTop + 2 > loops.length) {
+            loops = Arrays.copyOf(loops, loops.length * 2);
+        }
+        loops[loopTop++] = start;
+        loops[loopTop++] = breakTop;
+    }
+
+    /**
+     * 循环结束，它里面的 break 都跳到这里
+     */
+    private void exitLoop() {
+        int mark = loops[--loopTop];
+        loopTop--;
+        while (breakTop > mark) {
+            patch(breaks[--breakTop]);
+        }
+    }
+
+    private int add(Operation opt) {
+        code.add(new Instruction(opt));
+        return code.size() - 1;
+    }
+
+    private int add(Operation opt, long x) {
+        code.add(new Instruction(opt, x));
+        return code.size() - 1;
+    }
+
+    /**
+     * 把下标 jump 处的跳转指向下一条要生成的指令
+     */
+    private void patch(int jump) {
+        code.get(jump).setX(code.size());
+    }
+
+    private void push(int node) {
+        if (frameTop + 4 > frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+        frames[frameTop] = node;
+        frames[frameTop + 1] = 0;
+        frames[frameTop + 2] = 0;
+        frames[frameTop + 3] = 0;
+        frameTop += 4;
+    }
+
+    private void pop() {
+        frameTop -= 4;
+    }
+}
@@ -0,0 +1,226 @@
+package miniplc0java.analyser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import miniplc0java.ast.Ast;
+import miniplc0java.ast.NodeKind;
+import miniplc0java.ast.Type;
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.TokenType;
+
+/**
+ * 常量折叠和常量传播，在类型检查之后、生成指令之前
+ *
+ * 和类型检查一样按下标顺序扫一遍语法树，子节点总在父节点之前，所以算到父节点时子节点已经折叠好了。
+ * 初始值是常量、之后从不被赋值的 const 和 let 把值传播到用到它的地方。
+ * 名字只能引用前面声明过的符号，所以读到一个全局变量时它一定已经初始化过了。
+ * 整数除以常量 0 不折叠，留到运行时出错。改写的是语法树的拷贝，原来的树留给增量分析
+ */
+class ConstantFolder {
+    // 被赋值过的符号，它们的值不能传播
+    private final HashSet<Element> assigned = new HashSet<>();
+    // 已知值的符号，int 直接存，double 存二进制位
+    private final HashMap<Element, Long> values = new HashMap<>();
+
+    private Ast ast;
+
+    /**
+     * @return 和 items 一一对应的新声明，语法树是折叠过的拷贝
+     */
+    List<TopLevelItem> fold(List<TopLevelItem> items) throws TokenizeError {
+        for (var item : items) {
+            var tree = item.ast;
+            for (int node = 0; node < tree.size(); node++) {
+                if (tree.kind(node) == NodeKind.ASSIGN) {
+                    assigned.add((Element) tree.ref(tree.lhs(node)));
+                }
+            }
+        }
+
+        var folded = new ArrayList<TopLevelItem>(items.size());
+        for (var item : items) {
+            var copy = new TopLevelItem();
+            copy.start = item.start;
+            copy.end = item.end;
+            copy.symbol = item.symbol;
+            copy.ast = ast = item.ast.copy();
+            for (int node = 0; node < ast.size(); node++) {
+                fold(node);
+            }
+            folded.add(copy);
+        }
+        return folded;
+    }
+
+    private void fold(int node) throws TokenizeError {
+        int lhs = ast.lhs(node);
+        int rhs = ast.rhs(node);
+        switch (ast.kind(node)) {
+            case LITERAL: {
+                var tokens = ast.tokens();
+                var value = tokens.valueAt(ast.token(node));
+                switch (tokens.typeAt(ast.token(node))) {
+                    case UINT_LITERAL:
+                        ast.setConstant(node, (Long) value);
+                        break;
+                    case CHAR_LITERAL:
+                        ast.setConstant(node, (Character) value);
+                        break;
+                    case DOUBLE_LITERAL:
+                        ast.setConstant(node, Double.doubleToRawLongBits((Double) value));
+                        break;
+                    default:
+                        break;
+                }
+                break;
+            }
+            case IDENT: {
+                var value = values.get((Element) ast.ref(node));
+                if (value != null) {
+                    ast.setConstant(node, value);
+                }
+                break;
+            }
+            case LET:
+            case CONST: {
+                var symbol = (Element) ast.ref(node);
+                if (rhs != Ast.NONE && isConstant(rhs) && !assigned.contains(symbol)) {
+                    values.put(symbol, ast.constant(rhs));
+                }
+                break;
+            }
+            case NEGATE:
+                if (isConstant(lhs)) {
+                    long value = ast.constant(lhs);
+                    ast.setConstant(node, ast.type(node) == Type.DOUBLE ? bits(-real(value)) : -value);
+                }
+                break;
+            case AS:
+                if (isConstant(lhs)) {
+                    long value = ast.constant(lhs);
+                    var from = ast.type(lhs);
+                    var to = ast.type(node);
+                    if (from == Type.INT && to == Type.DOUBLE) {
+                        value = bits((double) value);
+                    } else if (from == Type.DOUBLE && to == Type.INT) {
+                        value = (long) real(value);
+                    }
+                    ast.setConstant(node, value);
+                }
+                break;
+            case BINARY:
+                binary(node, lhs, rhs);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void binary(int node, int lhs, int rhs) throws TokenizeError {
+        var op = ast.tokens().typeAt(ast.token(node));
+        boolean isDouble = ast.type(lhs) == Type.DOUBLE;
+        if (isConstant(lhs) && isConstant(rhs)) {
+            long a = ast.constant(lhs);
+            long b = ast.constant(rhs);
+            if (isDouble) {
+                ast.setConstant(node, doubleOp(op, real(a), real(b)));
+            } else if (op != TokenType.DIV || b != 0) {
+                ast.setConstant(node, intOp(op, a, b));
+            }
+            return;
+        }
+        if (isDouble) {
+            // x + 0.0 在 x 是 -0.0 时不等于 x，double 不做代数化简
+            return;
+        }
+        // 代数恒等式：x + 0、0 + x、x - 0、x * 1、1 * x、x / 1 都是 x，变量乘 0 是 0
+        if (isInt(rhs, 0) && (op == TokenType.PLUS || op == TokenType.MINUS)
+                || isInt(rhs, 1) && (op == TokenType.MUL || op == TokenType.DIV)) {
+            ast.replace(node, lhs);
+        } else if (isInt(lhs, 0) && op == TokenType.PLUS || isInt(lhs, 1) && op == TokenType.MUL) {
+            ast.replace(node, rhs);
+        } else if (op == TokenType.MUL && (isInt(lhs, 0) && ast.kind(rhs) == NodeKind.IDENT
+                || isInt(rhs, 0) && ast.kind(lhs) == NodeKind.IDENT)) {
+            ast.setConstant(node, 0);
+        }
+    }
+
+    private static long intOp(TokenType op, long a, long b) {
+        switch (op) {
+            case PLUS:
+                return a + b;
+            case MINUS:
+                return a - b;
+            case MUL:
+                return a * b;
+            case DIV:
+                return a / b;
+            default:
+                return compare(op, Long.compare(a, b));
+        }
+    }
+
+    private static long doubleOp(TokenType op, double a, double b) {
+        switch (op) {
+            case PLUS:
+                return bits(a + b);
+            case MINUS:
+                return bits(a - b);
+            case MUL:
+                return bits(a * b);
+            case DIV:
+                return bits(a / b);
+            case EQ:
+                return a == b ? 1 : 0;
+            case NEQ:
+                return a != b ? 1 : 0;
+            case LT:
+                return a < b ? 1 : 0;
+            case GT:
+                return a > b ? 1 : 0;
+            case LE:
+                return a <= b ? 1 : 0;
+            default:
+                return a >= b ? 1 : 0;
+        }
+    }
+
+    /**
+     * @param order a 和 b 比较的结果，只用于 int，double 的 NaN 要单独处理
+     */
+    private static long compare(TokenType op, int order) {
+        switch (op) {
+            case EQ:
+                return order == 0 ? 1 : 0;
+            case NEQ:
+                return order != 0 ? 1 : 0;
+            case LT:
+                return order < 0 ? 1 : 0;
+            case GT:
+                return order > 0 ? 1 : 0;
+            case LE:
+                return order <= 0 ? 1 : 0;
+            default:
+                return order >= 0 ? 1 : 0;
+        }
+    }
+
+    private boolean isConstant(int node) {
+        return ast.kind(node) == NodeKind.CONSTANT;
+    }
+
+    private boolean isInt(int node, long value) {
+        return isConstant(node) && ast.type(node) == Type.INT && ast.constant(node) == value;
+    }
+
+    private static double real(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long bits(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+}
@@ -1,11 +1,26 @@
 package miniplc0java.analyser;
 
+import java.util.ArrayList;
+
 public class Element {
+    // 名字在 Interner 中的编号，查找时只比较编号
+    int id;
     String name;
     String type;
     boolean isPara;
     boolean isConst;
     boolean isGlobal;
+    boolean isFunction;
+    boolean isBuiltin;
+    boolean isInitialized;
+    // 函数、全局变量、参数、局部变量各自编号，由 SymbolTable.declare() 分配
+    int slot;
+    // 声明所在的作用域层数，以及被它遮住的外层同名符号
+    int level;
+    Element shadowed;
+    // 函数的参数表和局部变量槽位数
+    ArrayList<Element> params;
+    int locals;
 
     @Override
     public String toString() {
@@ -15,6 +30,7 @@ public class Element {
                 ", isPara=" + isPara +
                 ", isConst=" + isConst +
                 ", isGlobal=" + isGlobal +
+                ", slot=" + slot +
                 '}';
     }
 }
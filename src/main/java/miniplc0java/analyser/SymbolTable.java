@@ -0,0 +1,162 @@
+package miniplc0java.analyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import miniplc0java.util.Interner;
+
+/**
+ * 带作用域的符号表，按名字在 Interner 中的编号查找
+ *
+ * visible[id] 是当前可见的那个同名符号，被它遮住的外层符号挂在 Element.shadowed 上。
+ * 每次声明都记进 log，退出作用域时把这一层的 log 倒着撤销，恢复被遮住的符号，
+ * 所以声明、查找和退出作用域都不需要扫描。第 0 层是全局作用域，放函数和全局变量，
+ * 内置函数在它下面的第 -1 层，可以被同名的全局符号遮住
+ */
+class SymbolTable {
+    // 内置函数：名字、返回类型、各个参数的类型
+    private static final String[][] BUILTINS = {
+            { "getint", "int" }, { "getdouble", "double" }, { "getchar", "int" },
+            { "putint", "void", "int" }, { "putdouble", "void", "double" }, { "putchar", "void", "int" },
+            { "putstr", "void", "string" }, { "putln", "void" },
+    };
+
+    private Element[] visible = new Element[64];
+
+    private Element[] log = new Element[64];
+    private int logSize = 0;
+    // scopes[level] 是进入第 level 层时 log 的长度
+    private int[] scopes = new int[16];
+    private int level = 0;
+
+    private final ArrayList<Element> globals = new ArrayList<>();
+    private int functionCount = 0;
+    private int globalCount = 0;
+    // 参数和局部变量在各自的函数里从 0 编号
+    private int paramCount = 0;
+    private int localCount = 0;
+
+    SymbolTable(Interner interner) {
+        for (int i = 0; i < BUILTINS.length; i++) {
+            var builtin = new Element();
+            builtin.name = BUILTINS[i][0];
+            builtin.id = interner.intern(builtin.name);
+            builtin.type = BUILTINS[i][1];
+            builtin.isFunction = true;
+            builtin.isBuiltin = true;
+            builtin.isGlobal = true;
+            builtin.level = -1;
+            builtin.slot = i;
+            builtin.params = new ArrayList<>();
+            for (int k = 2; k < BUILTINS[i].length; k++) {
+                var param = new Element();
+                param.type = BUILTINS[i][k];
+                param.isPara = true;
+                param.slot = k - 2;
+                builtin.params.add(param);
+            }
+            if (builtin.id >= visible.length) {
+                visible = Arrays.copyOf(visible, Math.max(builtin.id + 1, visible.length * 2));
+            }
+            visible[builtin.id] = builtin;
+        }
+    }
+
+    /**
+     * @return 当前的作用域层数，全局作用域是 0
+     */
+    int level() {
+        return level;
+    }
+
+    void enterScope() {
+        if (++level == scopes.length) {
+            scopes = Arrays.copyOf(scopes, level * 2);
+        }
+        scopes[level] = logSize;
+    }
+
+    /**
+     * 退出当前作用域，这一层声明的符号全部失效，被它们遮住的符号重新可见
+     */
+    void exitScope() {
+        int mark = scopes[level--];
+        while (logSize > mark) {
+            var symbol = log[--logSize];
+            log[logSize] = null;
+            visible[symbol.id] = symbol.shadowed;
+        }
+    }
+
+    /**
+     * 进入一个函数：参数和局部变量重新编号，参数单独占一层作用域
+     */
+    void enterFunction() {
+        paramCount = 0;
+        localCount = 0;
+        enterScope();
+    }
+
+    /**
+     * 退出函数的参数作用域
+     *
+     * @return 函数一共用了多少个局部变量槽位
+     */
+    int exitFunction() {
+        exitScope();
+        return localCount;
+    }
+
+    /**
+     * 在当前作用域声明一个符号，并按种类分配槽位
+     *
+     * @return 同一层已经有同名的符号时返回 false，此时什么也不做
+     */
+    boolean declare(Element symbol) {
+        int id = symbol.id;
+        if (id >= visible.length) {
+            visible = Arrays.copyOf(visible, Math.max(id + 1, visible.length * 2));
+        }
+        var outer = visible[id];
+        if (outer != null && outer.level == level) {
+            return false;
+        }
+        symbol.level = level;
+        symbol.shadowed = outer;
+        symbol.isGlobal = level == 0;
+        if (symbol.isFunction) {
+            symbol.slot = functionCount++;
+        } else if (symbol.isGlobal) {
+            symbol.slot = globalCount++;
+        } else if (symbol.isPara) {
+            symbol.slot = paramCount++;
+        } else {
+            symbol.slot = localCount++;
+        }
+
+        visible[id] = symbol;
+        if (logSize == log.length) {
+            log = Arrays.copyOf(log, logSize * 2);
+        }
+        log[logSize++] = symbol;
+        if (level == 0) {
+            globals.add(symbol);
+        }
+        return true;
+    }
+
+    /**
+     * @return 当前可见的符号，未定义时返回 null
+     */
+    Element lookup(int id) {
+        return id >= 0 && id < visible.length ? visible[id] : null;
+    }
+
+    /**
+     * @return 全局作用域的符号，按声明顺序排列
+     */
+    List<Element> globals() {
+        return globals;
+    }
+}
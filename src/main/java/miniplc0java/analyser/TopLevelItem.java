@@ -0,0 +1,16 @@
+package miniplc0java.analyser;
+
+import miniplc0java.ast.Ast;
+
+/**
+ * analyseProgram() 中的一个顶层声明（fn、let 或 const）和它的分析结果，增量分析时整个复用
+ */
+class TopLevelItem {
+    // 覆盖的 token 下标范围 [start, end)
+    int start;
+    int end;
+    // 声明的全局符号（函数或者全局变量）
+    Element symbol;
+    // 这个声明的语法树
+    Ast ast;
+}
@@ -0,0 +1,245 @@
+package miniplc0java.analyser;
+
+import miniplc0java.ast.Ast;
+import miniplc0java.ast.NodeKind;
+import miniplc0java.ast.Type;
+import miniplc0java.error.AnalyzeError;
+import miniplc0java.error.CompileError;
+import miniplc0java.error.ErrorCode;
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.TokenBuffer;
+import miniplc0java.tokenizer.TokenType;
+
+/**
+ * 一个顶层声明的类型检查：给每个节点标上类型，类型对不上的地方报错
+ *
+ * 语法树是自底向上建的，表达式的子节点下标总比父节点小，所以按下标顺序扫一遍就够了，不用递归。
+ * if 节点先于它的两个分支建立，但检查 if 只需要条件的类型。
+ * 引用全局符号的节点在这里按编号重新查一次，增量分析时复用的声明也会指向最新的符号。
+ * 返回值不是 void 的函数还要检查每条路径都以 return 结束
+ */
+class TypeChecker {
+    private final SymbolTable symbols;
+    private final Ast ast;
+    private final TokenBuffer tokens;
+    // 声明是函数时的返回类型，全局变量为 null
+    private final Type returnType;
+
+    /**
+     * @param owner 这个声明的全局符号
+     */
+    TypeChecker(SymbolTable symbols, Ast ast, Element owner) {
+        this.symbols = symbols;
+        this.ast = ast;
+        this.tokens = ast.tokens();
+        this.returnType = owner.isFunction ? Type.of(owner.type) : null;
+    }
+
+    void check() throws CompileError {
+        for (int node = 0; node < ast.size(); node++) {
+            ast.setType(node, typeOf(node));
+        }
+        if (returnType != null && returnType != Type.VOID) {
+            int root = ast.root();
+            if (!alwaysReturns(new boolean[ast.size()], ast.rhs(root))) {
+                throw error(ErrorCode.MissingReturn, root);
+            }
+        }
+    }
+
+    /**
+     * 函数体是否每条路径都以 return 结束。while 的条件可能一开始就不成立，不算
+     *
+     * 块的语句下标都比块小，按下标顺序算一遍 returns 就够了；if 先于分支建立，
+     * 用到时顺着 else if 链现算，链再长也不递归
+     */
+    private boolean alwaysReturns(boolean[] returns, int body) {
+        for (int node = 0; node <= body; node++) {
+            switch (ast.kind(node)) {
+                case RETURN:
+                    returns[node] = true;
+                    break;
+                case BLOCK:
+                    for (int i = ast.lhs(node); i < ast.rhs(node) && !returns[node]; i++) {
+                        returns[node] = statementReturns(returns, ast.extra(i));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return statementReturns(returns, body);
+    }
+
+    private boolean statementReturns(boolean[] returns, int node) {
+        while (ast.kind(node) == NodeKind.IF) {
+            int branches = ast.rhs(node);
+            int otherwise = ast.extra(branches + 1);
+            if (!returns[ast.extra(branches)] || otherwise == Ast.NONE) {
+                return false;
+            }
+            node = otherwise;
+        }
+        return returns[node];
+    }
+
+    private Type typeOf(int node) throws CompileError {
+        int lhs = ast.lhs(node);
+        int rhs = ast.rhs(node);
+        switch (ast.kind(node)) {
+            case TYPE: {
+                var type = Type.of(tokens.valueStringAt(ast.token(node)));
+                if (type == null || type == Type.STRING) {
+                    throw error(ErrorCode.UnknownType, node);
+                }
+                return type;
+            }
+            case PARAM:
+                value(lhs);
+                return Type.VOID;
+            case LET:
+            case CONST:
+                if (rhs != Ast.NONE) {
+                    expect(rhs, value(lhs));
+                } else {
+                    value(lhs);
+                }
+                return Type.VOID;
+            case IF:
+            case WHILE:
+                expect(lhs, Type.INT);
+                return Type.VOID;
+            case RETURN:
+                if (lhs == Ast.NONE) {
+                    if (returnType != Type.VOID) {
+                        throw error(ErrorCode.TypeMismatch, node);
+                    }
+                } else if (returnType == Type.VOID) {
+                    throw error(ErrorCode.TypeMismatch, lhs);
+                } else {
+                    expect(lhs, returnType);
+                }
+                return Type.VOID;
+            case LITERAL:
+                switch (tokens.typeAt(ast.token(node))) {
+                    case DOUBLE_LITERAL:
+                        return Type.DOUBLE;
+                    case STRING_LITERAL:
+                        return Type.STRING;
+                    default:
+                        // C0 的字符字面量就是 int，putchar('a') 和 'a' + 1 都合法
+                        return Type.INT;
+                }
+            case IDENT: {
+                var symbol = resolve(node);
+                if (symbol.isFunction) {
+                    throw error(ErrorCode.NotAVariable, node);
+                }
+                return Type.of(symbol.type);
+            }
+            case CALL: {
+                var symbol = resolve(node);
+                if (!symbol.isFunction) {
+                    throw error(ErrorCode.NotAFunction, node);
+                }
+                if (rhs - lhs != symbol.params.size()) {
+                    throw error(ErrorCode.ArgumentCountMismatch, node);
+                }
+                for (int i = lhs; i < rhs; i++) {
+                    expect(ast.extra(i), Type.of(symbol.params.get(i - lhs).type));
+                }
+                return Type.of(symbol.type);
+            }
+            case ASSIGN: {
+                var target = (Element) ast.ref(lhs);
+                if (target.isConst) {
+                    throw error(ErrorCode.AssignToConstant, lhs);
+                }
+                expect(rhs, ast.type(lhs));
+                return Type.VOID;
+            }
+            case NEGATE:
+                return number(lhs);
+            case BINARY: {
+                var type = number(lhs);
+                expect(rhs, type);
+                return isComparison(tokens.typeAt(ast.token(node))) ? Type.INT : type;
+            }
+            case AS: {
+                number(lhs);
+                var type = Type.of(tokens.valueStringAt(ast.token(node)));
+                if (type == null || type == Type.STRING) {
+                    throw error(ErrorCode.UnknownType, node);
+                }
+                if (type == Type.VOID) {
+                    throw error(ErrorCode.TypeMismatch, node);
+                }
+                return type;
+            }
+            default:
+                return Type.VOID;
+        }
+    }
+
+    /**
+     * 节点引用的符号；全局符号按编号重新查一次
+     */
+    private Element resolve(int node) throws CompileError {
+        var symbol = (Element) ast.ref(node);
+        if (symbol.level != 0) {
+            return symbol;
+        }
+        var current = symbols.lookup(symbol.id);
+        if (current == null || current.level != 0) {
+            throw error(ErrorCode.NotDeclared, node);
+        }
+        ast.setRef(node, current);
+        return current;
+    }
+
+    private static boolean isComparison(TokenType tt) {
+        switch (tt) {
+            case EQ:
+            case NEQ:
+            case LT:
+            case GT:
+            case LE:
+            case GE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 变量和参数的类型不能是 void
+     */
+    private Type value(int typeNode) throws CompileError {
+        var type = ast.type(typeNode);
+        if (type == Type.VOID) {
+            throw error(ErrorCode.TypeMismatch, typeNode);
+        }
+        return type;
+    }
+
+    /**
+     * 算术运算的操作数只能是 int 或者 double
+     */
+    private Type number(int node) throws CompileError {
+        var type = ast.type(node);
+        if (type != Type.INT && type != Type.DOUBLE) {
+            throw error(ErrorCode.TypeMismatch, node);
+        }
+        return type;
+    }
+
+    private void expect(int node, Type type) throws CompileError {
+        if (ast.type(node) != type) {
+            throw error(ErrorCode.TypeMismatch, node);
+        }
+    }
+
+    private AnalyzeError error(ErrorCode code, int node) throws TokenizeError {
+        return new AnalyzeError(code, tokens.getSource(), tokens.startAt(ast.token(node)));
+    }
+}
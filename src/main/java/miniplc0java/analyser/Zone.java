@@ -1,10 +0,0 @@
-package miniplc0java.analyser;
-
-import java.util.ArrayList;
-
-public class Zone {
-
-    ArrayList<ArrayList<Element>>SYM=new ArrayList<>();
-    int level_now;
-
-}
@@ -0,0 +1,354 @@
+package miniplc0java.ast;
+
+import java.util.Arrays;
+
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.TokenBuffer;
+
+/**
+ * 一个顶层声明（fn、let 或 const）的语法树，节点存在按列排列的数组里
+ *
+ * 每个节点占 kinds/tokens/lhs/rhs 四个数组里的一格，节点之间用下标互相引用。
+ * 子节点个数不定的节点（块、调用）把子节点下标连续地放在 extra 里，lhs..rhs 是这段范围。
+ * 节点记录的是相对于 tokenBase 的 token 下标，增量分析时整个声明平移只需要改 tokenBase
+ */
+public class Ast {
+    /** 没有这个子节点 */
+    public static final int NONE = -1;
+
+    private static final NodeKind[] KINDS = NodeKind.values();
+    private static final Type[] TYPES = Type.values();
+
+    private final TokenBuffer tokens;
+    private int tokenBase;
+
+    byte[] kinds = new byte[64];
+    int[] mainTokens = new int[64];
+    int[] lhs = new int[64];
+    int[] rhs = new int[64];
+    // 类型检查以后填上的类型，下标是 Type 的序号
+    byte[] types = new byte[64];
+    // 标识符、调用和声明节点引用的符号，由分析器填写
+    Object[] refs = new Object[64];
+    int count = 0;
+
+    int[] extra = new int[64];
+    int extraCount = 0;
+
+    // 收集子节点用的栈，一个列表收集完以后整段搬进 extra
+    int[] scratch = new int[16];
+    int scratchTop = 0;
+
+    int root = NONE;
+
+    /**
+     * @param tokenBase 这个声明的第一个 token 的下标
+     */
+    public Ast(TokenBuffer tokens, int tokenBase) {
+        this.tokens = tokens;
+        this.tokenBase = tokenBase;
+    }
+
+    /**
+     * 添加一个节点
+     *
+     * @param token 节点的主 token 在 tokens 中的下标
+     * @return 节点下标
+     */
+    public int add(NodeKind kind, int token, int lhs, int rhs) {
+        if (count == kinds.length) {
+            int capacity = count * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            mainTokens = Arrays.copyOf(mainTokens, capacity);
+            this.lhs = Arrays.copyOf(this.lhs, capacity);
+            this.rhs = Arrays.copyOf(this.rhs, capacity);
+            types = Arrays.copyOf(types, capacity);
+            refs = Arrays.copyOf(refs, capacity);
+        }
+        kinds[count] = (byte) kind.ordinal();
+        mainTokens[count] = token - tokenBase;
+        this.lhs[count] = lhs;
+        this.rhs[count] = rhs;
+        return count++;
+    }
+
+    /**
+     * 在 extra 末尾放几个整数
+     *
+     * @return 第一个整数在 extra 中的下标
+     */
+    public int addExtra(int... values) {
+        if (extraCount + values.length > extra.length) {
+            extra = Arrays.copyOf(extra, Math.max(extra.length * 2, extraCount + values.length));
+        }
+        System.arraycopy(values, 0, extra, extraCount, values.length);
+        int start = extraCount;
+        extraCount += values.length;
+        return start;
+    }
+
+    /**
+     * 把节点改写成编译期常量，int 的值直接存，double 存二进制位
+     */
+    public void setConstant(int node, long value) {
+        kinds[node] = (byte) NodeKind.CONSTANT.ordinal();
+        lhs[node] = (int) (value >>> 32);
+        rhs[node] = (int) value;
+    }
+
+    /**
+     * @return CONSTANT 节点的值
+     */
+    public long constant(int node) {
+        return ((long) lhs[node] << 32) | (rhs[node] & 0xffffffffL);
+    }
+
+    /**
+     * 用 from 节点的内容覆盖 node，from 原来的位置不再被引用
+     */
+    public void replace(int node, int from) {
+        kinds[node] = kinds[from];
+        mainTokens[node] = mainTokens[from];
+        lhs[node] = lhs[from];
+        rhs[node] = rhs[from];
+        types[node] = types[from];
+        refs[node] = refs[from];
+    }
+
+    /**
+     * @return 一份独立的拷贝，优化遍改写拷贝，原来的树留给增量分析
+     */
+    public Ast copy() {
+        var copy = new Ast(tokens, tokenBase);
+        copy.kinds = Arrays.copyOf(kinds, kinds.length);
+        copy.mainTokens = Arrays.copyOf(mainTokens, mainTokens.length);
+        copy.lhs = Arrays.copyOf(lhs, lhs.length);
+        copy.rhs = Arrays.copyOf(rhs, rhs.length);
+        copy.types = Arrays.copyOf(types, types.length);
+        copy.refs = Arrays.copyOf(refs, refs.length);
+        copy.count = count;
+        copy.extra = Arrays.copyOf(extra, extra.length);
+        copy.extraCount = extraCount;
+        copy.root = root;
+        return copy;
+    }
+
+    public void setExtra(int index, int value) {
+        extra[index] = value;
+    }
+
+    /**
+     * 开始收集一个子节点列表
+     *
+     * @return 列表的起点，交给 endList()
+     */
+    public int beginList() {
+        return scratchTop;
+    }
+
+    public void listAdd(int node) {
+        if (scratchTop == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratchTop * 2);
+        }
+        scratch[scratchTop++] = node;
+    }
+
+    /**
+     * @return beginList() 之后已经收集的子节点个数
+     */
+    public int listSize(int mark) {
+        return scratchTop - mark;
+    }
+
+    /**
+     * 把 beginList() 之后收集的子节点搬进 extra
+     *
+     * @return 这段子节点在 extra 中的起点，终点是起点加上个数
+     */
+    public int endList(int mark) {
+        int start = addExtra(Arrays.copyOfRange(scratch, mark, scratchTop));
+        scratchTop = mark;
+        return start;
+    }
+
+    public void setRoot(int root) {
+        this.root = root;
+    }
+
+    /**
+     * @return 整个声明的根节点
+     */
+    public int root() {
+        return root;
+    }
+
+    /**
+     * @return 节点个数，所有节点下标都小于它
+     */
+    public int size() {
+        return count;
+    }
+
+    public NodeKind kind(int node) {
+        return KINDS[kinds[node]];
+    }
+
+    /**
+     * @return 节点的主 token 在 tokens 中的下标
+     */
+    public int token(int node) {
+        return mainTokens[node] + tokenBase;
+    }
+
+    public int lhs(int node) {
+        return lhs[node];
+    }
+
+    public int rhs(int node) {
+        return rhs[node];
+    }
+
+    public int extra(int index) {
+        return extra[index];
+    }
+
+    public Type type(int node) {
+        return TYPES[types[node]];
+    }
+
+    public void setType(int node, Type type) {
+        types[node] = (byte) type.ordinal();
+    }
+
+    /**
+     * @return 节点引用的符号，没有时为 null
+     */
+    public Object ref(int node) {
+        return refs[node];
+    }
+
+    public void setRef(int node, Object ref) {
+        refs[node] = ref;
+    }
+
+    public TokenBuffer tokens() {
+        return tokens;
+    }
+
+    public int tokenBase() {
+        return tokenBase;
+    }
+
+    /**
+     * 声明在 token 流中整体平移了 delta 个 token
+     */
+    public void rebase(int delta) {
+        tokenBase += delta;
+    }
+
+    /**
+     * 按 S 表达式输出以 node 为根的子树，调试和测试用
+     */
+    public String dump(int node) throws TokenizeError {
+        var sb = new StringBuilder();
+        dump(node, sb);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return dump(root);
+        } catch (TokenizeError e) {
+            return e.toString();
+        }
+    }
+
+    private void dump(int node, StringBuilder sb) throws TokenizeError {
+        if (node == NONE) {
+            sb.append('_');
+            return;
+        }
+        var kind = kind(node);
+        sb.append('(').append(kind);
+        switch (kind) {
+            case FUNCTION:
+                sb.append(' ').append(tokens.valueAt(token(node)));
+                for (int i = extra[lhs[node]]; i < extra[lhs[node] + 1]; i++) {
+                    sb.append(' ');
+                    dump(extra[i], sb);
+                }
+                sb.append(' ');
+                dump(extra[lhs[node] + 2], sb);
+                sb.append(' ');
+                dump(rhs[node], sb);
+                break;
+            case PARAM:
+                sb.append(rhs[node] != 0 ? " const " : " ").append(tokens.valueAt(token(node))).append(' ');
+                dump(lhs[node], sb);
+                break;
+            case LET:
+            case CONST:
+                sb.append(' ').append(tokens.valueAt(token(node))).append(' ');
+                dump(lhs[node], sb);
+                sb.append(' ');
+                dump(rhs[node], sb);
+                break;
+            case BLOCK:
+            case CALL:
+                if (kind == NodeKind.CALL) {
+                    sb.append(' ').append(tokens.valueAt(token(node)));
+                }
+                for (int i = lhs[node]; i < rhs[node]; i++) {
+                    sb.append(' ');
+                    dump(extra[i], sb);
+                }
+                break;
+            case IF:
+                sb.append(' ');
+                dump(lhs[node], sb);
+                sb.append(' ');
+                dump(extra[rhs[node]], sb);
+                sb.append(' ');
+                dump(extra[rhs[node] + 1], sb);
+                break;
+            case BINARY:
+            case WHILE:
+            case ASSIGN:
+                if (kind == NodeKind.BINARY) {
+                    sb.append(' ').append(tokens.valueAt(token(node)));
+                }
+                sb.append(' ');
+                dump(lhs[node], sb);
+                sb.append(' ');
+                dump(rhs[node], sb);
+                break;
+            case AS:
+                sb.append(' ');
+                dump(lhs[node], sb);
+                sb.append(' ').append(tokens.valueAt(token(node)));
+                break;
+            case RETURN:
+            case EXPR_STMT:
+            case NEGATE:
+                sb.append(' ');
+                dump(lhs[node], sb);
+                break;
+            case TYPE:
+            case IDENT:
+            case LITERAL:
+                sb.append(' ').append(tokens.valueAt(token(node)));
+                break;
+            case CONSTANT:
+                if (type(node) == Type.DOUBLE) {
+                    sb.append(' ').append(Double.longBitsToDouble(constant(node)));
+                } else {
+                    sb.append(' ').append(constant(node));
+                }
+                break;
+            default:
+                break;
+        }
+        sb.append(')');
+    }
+}
@@ -0,0 +1,50 @@
+package miniplc0java.ast;
+
+/**
+ * 语法树节点的种类，每种节点的 token、lhs、rhs 含义见各常量的注释。
+ * 没有的子节点用 Ast.NONE 表示
+ */
+public enum NodeKind {
+    /** token: 函数名；lhs: extra 中 {参数起点, 参数终点, 返回类型 TYPE}；rhs: 函数体 BLOCK */
+    FUNCTION,
+    /** token: 参数名；lhs: 类型 TYPE；rhs: 是 const 为 1，否则为 0 */
+    PARAM,
+    /** token: 变量名；lhs: 类型 TYPE；rhs: 初始值表达式 */
+    LET,
+    /** token: 常量名；lhs: 类型 TYPE；rhs: 初始值表达式 */
+    CONST,
+    /** token: '{'；lhs..rhs: extra 中语句的范围 */
+    BLOCK,
+    /** token: 'if'；lhs: 条件；rhs: extra 中 {then BLOCK, else 分支}，else if 是嵌套的 IF */
+    IF,
+    /** token: 'while'；lhs: 条件；rhs: 循环体 BLOCK */
+    WHILE,
+    /** token: 'break' */
+    BREAK,
+    /** token: 'continue' */
+    CONTINUE,
+    /** token: 'return'；lhs: 返回值表达式 */
+    RETURN,
+    /** token: 表达式的第一个 token；lhs: 表达式 */
+    EXPR_STMT,
+    /** token: ';' */
+    EMPTY,
+    /** token: '='；lhs: 被赋值的 IDENT；rhs: 值 */
+    ASSIGN,
+    /** token: 运算符；lhs、rhs: 两个操作数 */
+    BINARY,
+    /** token: '-'；lhs: 操作数 */
+    NEGATE,
+    /** token: 目标类型；lhs: 被转换的表达式 */
+    AS,
+    /** token: 函数名；lhs..rhs: extra 中参数的范围 */
+    CALL,
+    /** token: 标识符 */
+    IDENT,
+    /** token: 字面量，具体类型看 token 的类型 */
+    LITERAL,
+    /** token: 类型名 */
+    TYPE,
+    /** token: 折叠前的主 token；lhs、rhs: 值的高 32 位和低 32 位，double 存的是二进制位 */
+    CONSTANT,
+}
@@ -0,0 +1,33 @@
+package miniplc0java.ast;
+
+/**
+ * C0 的值类型，类型检查以后每个表达式节点都标上一个
+ *
+ * STRING 只是字符串字面量的类型，源码里不能写出这个类型名，只有 putstr 接受它
+ */
+public enum Type {
+    VOID, INT, DOUBLE, STRING;
+
+    /**
+     * @return 类型名对应的类型，不认识的名字返回 null
+     */
+    public static Type of(String name) {
+        switch (name) {
+            case "void":
+                return VOID;
+            case "int":
+                return INT;
+            case "double":
+                return DOUBLE;
+            case "string":
+                return STRING;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -1,5 +1,6 @@
 package miniplc0java.error;
 
+import miniplc0java.tokenizer.StringIter;
 import miniplc0java.util.Pos;
 
 public class AnalyzeError extends CompileError {
@@ -7,6 +8,9 @@ public class AnalyzeError extends CompileError {
 
     ErrorCode code;
     Pos pos;
+    // 只记录偏移的错误，第一次需要 Pos 时才换算
+    StringIter source;
+    int offset;
 
     @Override
     public ErrorCode getErr() {
@@ -15,6 +19,10 @@ public class AnalyzeError extends CompileError {
 
     @Override
     public Pos getPos() {
+        if (pos == null && source != null) {
+            pos = source.posAt(offset);
+            source = null;
+        }
         return pos;
     }
 
@@ -28,8 +36,22 @@ public class AnalyzeError extends CompileError {
         this.pos = pos;
     }
 
+    /**
+     * 出错位置用偏移表示，getPos() 或者输出错误信息时才换算成行列号。
+     * 流式模式下窗口还会滑动，所以立即换算
+     */
+    public AnalyzeError(ErrorCode code, StringIter source, int offset) {
+        this.code = code;
+        if (source.isStreaming()) {
+            this.pos = source.posAt(offset);
+        } else {
+            this.source = source;
+            this.offset = offset;
+        }
+    }
+
     @Override
     public String toString() {
-        return new StringBuilder().append("Analyze Error: ").append(code).append(", at: ").append(pos).toString();
+        return new StringBuilder().append("Analyze Error: ").append(code).append(", at: ").append(getPos()).toString();
     }
 }
@@ -4,5 +4,6 @@ public enum ErrorCode {
     NoError, // Should be only used internally.
     StreamError, EOF, InvalidInput, InvalidIdentifier, IntegerOverflow, // int32_t overflow.
     NoBegin, NoEnd, NeedIdentifier, ConstantNeedValue, NoSemicolon, InvalidVariableDeclaration, IncompleteExpression,
-    NotDeclared, AssignToConstant, DuplicateDeclaration, NotInitialized, InvalidAssignment, InvalidPrint, ExpectedToken
+    NotDeclared, AssignToConstant, DuplicateDeclaration, NotInitialized, InvalidAssignment, InvalidPrint, ExpectedToken,
+    UnknownType, TypeMismatch, NotAFunction, NotAVariable, ArgumentCountMismatch, NotInLoop, MissingReturn, NoMain
 }
@@ -1,5 +1,6 @@
 package miniplc0java.error;
 
+import miniplc0java.tokenizer.StringIter;
 import miniplc0java.util.Pos;
 
 public class TokenizeError extends CompileError {
@@ -8,6 +9,9 @@ public class TokenizeError extends CompileError {
 
     private ErrorCode err;
     private Pos pos;
+    // 只记录偏移的错误，第一次需要 Pos 时才换算，换算完以后不再引用源码
+    private StringIter source;
+    private int offset;
 
     public TokenizeError(ErrorCode err, Pos pos) {
         super();
@@ -15,6 +19,21 @@ public class TokenizeError extends CompileError {
         this.pos = pos;
     }
 
+    /**
+     * 出错位置用偏移表示，getPos() 或者输出错误信息时才换算成行列号。
+     * 流式模式下窗口还会滑动，所以立即换算
+     */
+    public TokenizeError(ErrorCode err, StringIter source, int offset) {
+        super();
+        this.err = err;
+        if (source.isStreaming()) {
+            this.pos = source.posAt(offset);
+        } else {
+            this.source = source;
+            this.offset = offset;
+        }
+    }
+
     public TokenizeError(ErrorCode err, Integer row, Integer col) {
         super();
         this.err = err;
@@ -26,11 +45,15 @@ public class TokenizeError extends CompileError {
     }
 
     public Pos getPos() {
+        if (pos == null && source != null) {
+            pos = source.posAt(offset);
+            source = null;
+        }
         return pos;
     }
 
     @Override
     public String toString() {
-        return new StringBuilder().append("Tokenize Error: ").append(err).append(", at: ").append(pos).toString();
+        return new StringBuilder().append("Tokenize Error: ").append(err).append(", at: ").append(getPos()).toString();
     }
 }
@@ -0,0 +1,96 @@
+package miniplc0java.instruction;
+
+import java.util.ArrayList;
+
+/**
+ * 删除调用不到的函数和从来不被读的全局变量
+ *
+ * 函数里执行不到的指令已经由控制流图上的 UnreachableBlockElimination 删掉了，这里只看剩下的指令。
+ * 从入口函数出发沿着 CALL 建调用图，入口会调用 main，
+ * 所以没被 main 直接或间接调用的函数都删掉。只在能调用到的函数里出现过 LOADG 的全局变量才保留，
+ * 写其余全局变量的 STOREG 换成 POP，初始化表达式里的调用和输入照样执行。
+ * 删完以后函数和全局变量重新编号，CALL、LOADG、STOREG 都按新编号改写
+ */
+public class DeadCodeEliminator {
+    private int removedFunctions = 0;
+    private int removedGlobals = 0;
+
+    public void eliminate(Program program) {
+        var functions = program.getFunctions();
+        // 调用图，根是最后的入口函数
+        int count = functions.size();
+        var called = new boolean[count];
+        var read = new boolean[program.getGlobals()];
+        var work = new int[count];
+        int top = 0;
+        called[count - 1] = true;
+        work[top++] = count - 1;
+        while (top > 0) {
+            for (var instruction : functions.get(work[--top]).getBody()) {
+                int x = (int) instruction.getX();
+                if (instruction.getOpt() == Operation.CALL && !called[x]) {
+                    called[x] = true;
+                    work[top++] = x;
+                } else if (instruction.getOpt() == Operation.LOADG) {
+                    read[x] = true;
+                }
+            }
+        }
+
+        var functionIndex = new int[count];
+        var kept = new ArrayList<FunctionDef>();
+        for (int f = 0; f < count; f++) {
+            if (called[f]) {
+                functionIndex[f] = kept.size();
+                kept.add(functions.get(f));
+            } else {
+                removedFunctions++;
+            }
+        }
+        var globalIndex = new int[read.length];
+        int globals = 0;
+        for (int g = 0; g < read.length; g++) {
+            if (read[g]) {
+                globalIndex[g] = globals++;
+            } else {
+                removedGlobals++;
+            }
+        }
+
+        for (var function : kept) {
+            var body = function.getBody();
+            for (int i = 0; i < body.size(); i++) {
+                var instruction = body.get(i);
+                int x = (int) instruction.getX();
+                switch (instruction.getOpt()) {
+                    case CALL:
+                        instruction.setX(functionIndex[x]);
+                        break;
+                    case LOADG:
+                        instruction.setX(globalIndex[x]);
+                        break;
+                    case STOREG:
+                        if (read[x]) {
+                            instruction.setX(globalIndex[x]);
+                        } else {
+                            body.set(i, new Instruction(Operation.POP));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        functions.clear();
+        functions.addAll(kept);
+        program.setGlobals(globals);
+    }
+
+    public int getRemovedFunctions() {
+        return removedFunctions;
+    }
+
+    public int getRemovedGlobals() {
+        return removedGlobals;
+    }
+}
@@ -0,0 +1,62 @@
+package miniplc0java.instruction;
+
+import java.util.List;
+
+/**
+ * 一个编译好的函数：参数个数、局部变量槽位数和指令序列
+ *
+ * 调用时实参已经按顺序压在栈上，局部变量紧跟在参数后面，进入函数时清零
+ */
+public class FunctionDef {
+    private final String name;
+    private final int params;
+    private final int locals;
+    private final boolean returnsValue;
+    private List<Instruction> body;
+
+    public FunctionDef(String name, int params, int locals, boolean returnsValue, List<Instruction> body) {
+        this.name = name;
+        this.params = params;
+        this.locals = locals;
+        this.returnsValue = returnsValue;
+        this.body = body;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getParams() {
+        return params;
+    }
+
+    public int getLocals() {
+        return locals;
+    }
+
+    /**
+     * @return RET 时是否把栈顶作为返回值带回调用方
+     */
+    public boolean returnsValue() {
+        return returnsValue;
+    }
+
+    public List<Instruction> getBody() {
+        return body;
+    }
+
+    public void setBody(List<Instruction> body) {
+        this.body = body;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        sb.append("fn ").append(name).append(" params=").append(params).append(" locals=").append(locals)
+                .append(returnsValue ? " -> value\n" : " -> void\n");
+        for (int i = 0; i < body.size(); i++) {
+            sb.append(String.format("%5d: %s%n", i, body.get(i)));
+        }
+        return sb.toString();
+    }
+}
@@ -1,17 +1,16 @@
 package miniplc0java.instruction;
 
-import java.util.Objects;
-
 public class Instruction {
     private Operation opt;
-    Integer x;
+    // 操作数，LITD 的操作数是 double 的二进制位
+    long x;
 
     public Instruction(Operation opt) {
         this.opt = opt;
         this.x = 0;
     }
 
-    public Instruction(Operation opt, Integer x) {
+    public Instruction(Operation opt, long x) {
         this.opt = opt;
         this.x = x;
     }
@@ -21,6 +20,13 @@ public class Instruction {
         this.x = 0;
     }
 
+    /**
+     * @return 把 value 压栈的 LITD 指令
+     */
+    public static Instruction ofDouble(double value) {
+        return new Instruction(Operation.LITD, Double.doubleToRawLongBits(value));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -28,12 +34,12 @@ public class Instruction {
         if (o == null || getClass() != o.getClass())
             return false;
         Instruction that = (Instruction) o;
-        return opt == that.opt && Objects.equals(x, that.x);
+        return opt == that.opt && x == that.x;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(opt, x);
+        return opt.hashCode() * 31 + Long.hashCode(x);
     }
 
     public Operation getOpt() {
@@ -44,30 +50,34 @@ public class Instruction {
         this.opt = opt;
     }
 
-    public Integer getX() {
+    public long getX() {
         return x;
     }
 
-    public void setX(Integer x) {
+    public void setX(long x) {
         this.x = x;
     }
 
     @Override
     public String toString() {
         switch (this.opt) {
-            case ADD:
-            case DIV:
-            case ILL:
-            case MUL:
-            case SUB:
-            case WRT:
-                return String.format("%s", this.opt);
             case LIT:
             case LOD:
             case STO:
+            case LOADA:
+            case STOREA:
+            case LOADL:
+            case STOREL:
+            case LOADG:
+            case STOREG:
+            case JMP:
+            case JZ:
+            case CALL:
                 return String.format("%s %s", this.opt, this.x);
+            case LITD:
+                return String.format("%s %s", this.opt, Double.longBitsToDouble(this.x));
             default:
-                return "ILL";
+                return String.format("%s", this.opt);
         }
     }
 }
@@ -1,5 +1,14 @@
 package miniplc0java.instruction;
 
 public enum Operation {
-    ILL, LIT, LOD, STO, ADD, SUB, MUL, DIV, WRT
+    ILL, LIT, LOD, STO, ADD, SUB, MUL, DIV, WRT,
+    // C0 的 int 和 double 各有一套运算，编译时就按类型选好，虚拟机不用检查值的类型
+    NEG, LITD, DADD, DSUB, DMUL, DDIV, DNEG, ITOD, DTOI,
+    EQ, NE, LT, GT, LE, GE, DEQ, DNE, DLT, DGT, DLE, DGE,
+    // 参数、局部变量和全局变量的读写，操作数是槽位
+    LOADA, STOREA, LOADL, STOREL, LOADG, STOREG, POP, DUP,
+    // 跳转的操作数是函数内的指令下标，CALL 的操作数是函数编号
+    JMP, JZ, CALL, RET,
+    // 内置函数
+    GETINT, GETDOUBLE, GETCHAR, PUTINT, PUTDOUBLE, PUTCHAR, PUTSTR, PUTLN
 }
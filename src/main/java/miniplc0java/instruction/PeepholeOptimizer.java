@@ -0,0 +1,224 @@
+package miniplc0java.instruction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 窥孔优化：用滑动窗口扫指令序列，按规则表把窗口里的固定模式换成更短的指令，直到没有规则能用
+ *
+ * 窗口不能盖住跳转目标（目标可以是窗口的第一条），改完以后所有跳转按新的下标重新回填。
+ * 每条规则记着自己命中的次数，report() 列出来，看哪些规则在实际的程序上有用
+ */
+public class PeepholeOptimizer {
+    /**
+     * 一条规则：看 code 从 at 开始的 size 条指令，能化简就返回替换成的指令，否则返回 null
+     */
+    private interface Rewrite {
+        Instruction[] apply(List<Instruction> code, int at);
+    }
+
+    private static final class Rule {
+        final String name;
+        final int size;
+        final Rewrite rewrite;
+
+        Rule(String name, int size, Rewrite rewrite) {
+            this.name = name;
+            this.size = size;
+            this.rewrite = rewrite;
+        }
+    }
+
+    private static final Instruction[] NOTHING = {};
+
+    private static final Rule[] RULES = {
+            // LIT 0, LIT n, SUB => LIT -n
+            new Rule("negate-constant", 3, (code, at) -> isLit(code.get(at), 0) && is(code.get(at + 1), Operation.LIT)
+                    && is(code.get(at + 2), Operation.SUB)
+                            ? one(Operation.LIT, -code.get(at + 1).getX())
+                            : null),
+            // LIT 0, LIT n, ADD => LIT n
+            new Rule("add-to-zero", 3, (code, at) -> isLit(code.get(at), 0) && is(code.get(at + 1), Operation.LIT)
+                    && is(code.get(at + 2), Operation.ADD) ? new Instruction[] { code.get(at + 1) } : null),
+            // LIT 0, LOAD x, SUB => LOAD x, NEG
+            new Rule("negate-load", 3, (code, at) -> isLit(code.get(at), 0) && isLoad(code.get(at + 1).getOpt())
+                    && is(code.get(at + 2), Operation.SUB)
+                            ? new Instruction[] { code.get(at + 1), new Instruction(Operation.NEG) }
+                            : null),
+            // STORE x, LOAD x => DUP, STORE x
+            new Rule("store-load", 2, (code, at) -> {
+                var store = code.get(at);
+                var load = code.get(at + 1);
+                return loadOf(store.getOpt()) == load.getOpt() && load.getOpt() != null && store.getX() == load.getX()
+                        ? new Instruction[] { new Instruction(Operation.DUP), store }
+                        : null;
+            }),
+            // LIT x / LOAD x / DUP, POP => 什么也不做
+            new Rule("push-pop", 2, (code, at) -> {
+                var op = code.get(at).getOpt();
+                return (op == Operation.LIT || op == Operation.LITD || op == Operation.DUP || isLoad(op))
+                        && is(code.get(at + 1), Operation.POP) ? NOTHING : null;
+            }),
+            // NEG, NEG => 什么也不做
+            new Rule("double-negate", 2, (code, at) -> {
+                var op = code.get(at).getOpt();
+                return (op == Operation.NEG || op == Operation.DNEG) && is(code.get(at + 1), op) ? NOTHING : null;
+            }),
+            // LIT 0, ADD / LIT 0, SUB / LIT 1, MUL / LIT 1, DIV => 什么也不做
+            new Rule("identity-operand", 2, (code, at) -> {
+                var op = code.get(at + 1).getOpt();
+                return isLit(code.get(at), 0) && (op == Operation.ADD || op == Operation.SUB)
+                        || isLit(code.get(at), 1) && (op == Operation.MUL || op == Operation.DIV) ? NOTHING : null;
+            }),
+            // LIT c, JZ t => c 为 0 时 JMP t，否则什么也不做
+            new Rule("constant-branch", 2, (code, at) -> is(code.get(at), Operation.LIT)
+                    && is(code.get(at + 1), Operation.JZ)
+                            ? code.get(at).getX() == 0 ? one(Operation.JMP, code.get(at + 1).getX()) : NOTHING
+                            : null),
+            // JMP 到下一条 => 什么也不做
+            new Rule("jump-to-next", 1, (code, at) -> is(code.get(at), Operation.JMP) && code.get(at).getX() == at + 1
+                    ? NOTHING
+                    : null),
+    };
+
+    private final long[] hits = new long[RULES.length];
+
+    /**
+     * 优化程序里的每个函数
+     */
+    public void optimize(Program program) {
+        for (var function : program.getFunctions()) {
+            function.setBody(optimize(function.getBody()));
+        }
+    }
+
+    /**
+     * @return 优化以后的指令序列，code 里的跳转指令会被就地改写
+     */
+    public List<Instruction> optimize(List<Instruction> code) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            boolean[] target = targets(code);
+            var result = new ArrayList<Instruction>(code.size());
+            // moved[i] 是原来第 i 条指令在新序列中的下标
+            int[] moved = new int[code.size() + 1];
+            int at = 0;
+            while (at < code.size()) {
+                moved[at] = result.size();
+                Instruction[] replacement = null;
+                int size = 1;
+                for (int r = 0; r < RULES.length && replacement == null; r++) {
+                    size = RULES[r].size;
+                    if (at + size <= code.size() && !covers(target, at, size)) {
+                        replacement = RULES[r].rewrite.apply(code, at);
+                        if (replacement != null) {
+                            hits[r]++;
+                        }
+                    }
+                }
+                if (replacement == null) {
+                    result.add(code.get(at++));
+                    continue;
+                }
+                // 窗口里除了第一条都不是跳转目标，映射到哪里都一样
+                for (int k = 1; k < size; k++) {
+                    moved[at + k] = result.size();
+                }
+                for (var instruction : replacement) {
+                    result.add(instruction);
+                }
+                at += size;
+                changed = true;
+            }
+            moved[code.size()] = result.size();
+            for (var instruction : result) {
+                if (isJump(instruction.getOpt())) {
+                    instruction.setX(moved[(int) instruction.getX()]);
+                }
+            }
+            code = result;
+        }
+        return code;
+    }
+
+    /**
+     * @return 每条规则的命中次数，一行一条
+     */
+    public String report() {
+        var sb = new StringBuilder();
+        for (int r = 0; r < RULES.length; r++) {
+            sb.append(String.format("%-20s %d%n", RULES[r].name, hits[r]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return 名字为 name 的规则的命中次数
+     */
+    public long hits(String name) {
+        for (int r = 0; r < RULES.length; r++) {
+            if (RULES[r].name.equals(name)) {
+                return hits[r];
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private static boolean[] targets(List<Instruction> code) {
+        var target = new boolean[code.size() + 1];
+        for (var instruction : code) {
+            if (isJump(instruction.getOpt())) {
+                target[(int) instruction.getX()] = true;
+            }
+        }
+        return target;
+    }
+
+    private static boolean covers(boolean[] target, int at, int size) {
+        for (int k = 1; k < size; k++) {
+            if (target[at + k]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isJump(Operation op) {
+        return op == Operation.JMP || op == Operation.JZ;
+    }
+
+    private static boolean isLoad(Operation op) {
+        return op == Operation.LOD || op == Operation.LOADA || op == Operation.LOADL || op == Operation.LOADG;
+    }
+
+    /**
+     * @return 和 store 读写同一种槽位的读指令，不是写指令时返回 null
+     */
+    private static Operation loadOf(Operation store) {
+        switch (store) {
+            case STO:
+                return Operation.LOD;
+            case STOREA:
+                return Operation.LOADA;
+            case STOREL:
+                return Operation.LOADL;
+            case STOREG:
+                return Operation.LOADG;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean is(Instruction instruction, Operation op) {
+        return instruction.getOpt() == op;
+    }
+
+    private static boolean isLit(Instruction instruction, long value) {
+        return instruction.getOpt() == Operation.LIT && instruction.getX() == value;
+    }
+
+    private static Instruction[] one(Operation op, long x) {
+        return new Instruction[] { new Instruction(op, x) };
+    }
+}
@@ -0,0 +1,117 @@
+package miniplc0java.instruction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 编译好的整个程序：函数表、全局变量个数和字符串常量
+ *
+ * 函数的编号就是它在函数表中的下标，最后一个函数是入口，它初始化全局变量并调用 main
+ */
+public class Program {
+    private final ArrayList<FunctionDef> functions = new ArrayList<>();
+    private final ArrayList<String> strings = new ArrayList<>();
+    private final HashMap<String, Integer> stringIds = new HashMap<>();
+    private int globals = 0;
+
+    public Program() {
+    }
+
+    /**
+     * 只有一段指令的程序，旧的 miniplc0 指令序列就按这种方式运行
+     */
+    public Program(List<Instruction> instructions) {
+        functions.add(new FunctionDef("_start", 0, 0, false, instructions));
+    }
+
+    public List<FunctionDef> getFunctions() {
+        return functions;
+    }
+
+    /**
+     * @return 新函数的编号
+     */
+    public int addFunction(FunctionDef function) {
+        functions.add(function);
+        return functions.size() - 1;
+    }
+
+    public FunctionDef getEntry() {
+        return functions.get(functions.size() - 1);
+    }
+
+    /**
+     * 登记一个字符串常量，相同的字符串共用一个编号
+     *
+     * @return 字符串的编号，putstr 的参数就是它
+     */
+    public int addString(String value) {
+        return stringIds.computeIfAbsent(value, v -> {
+            strings.add(v);
+            return strings.size() - 1;
+        });
+    }
+
+    public List<String> getStrings() {
+        return strings;
+    }
+
+    public int getGlobals() {
+        return globals;
+    }
+
+    public void setGlobals(int globals) {
+        this.globals = globals;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        sb.append(".globals ").append(globals).append('\n');
+        for (int i = 0; i < strings.size(); i++) {
+            sb.append(".string ").append(i).append(' ');
+            escape(strings.get(i), sb);
+            sb.append('\n');
+        }
+        for (var function : functions) {
+            sb.append(function);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 把字符串加上引号写进清单，引号、反斜杠和控制字符都转义，一个字符串总在一行里
+     */
+    private static void escape(String value, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20 || ch == 0x7f) {
+                        sb.append(String.format("\\u%04x", (int) ch));
+                    } else {
+                        sb.append(ch);
+                    }
+                    break;
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,10 @@
+package miniplc0java.ir;
+
+/**
+ * 对控制流图的一种分析，结果由 PassManager 缓存，直到有 Pass 改动了这个控制流图
+ */
+public interface Analysis<T> {
+    String getName();
+
+    T compute(ControlFlowGraph cfg);
+}
@@ -0,0 +1,74 @@
+package miniplc0java.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+/**
+ * 基本块：一段只能从第一条进入、从最后一条离开的指令
+ *
+ * 块尾的 JMP、JZ、RET 留在指令里，但跳转的操作数在降级回指令序列之前没有意义，跳到哪里以后继为准。
+ * 以 JZ 结尾的块第一个后继是条件为真时顺序执行到的块，第二个是跳转目标；顺序执行的块只有一个后继。
+ * 函数末尾有一个空的出口块，顺序执行到末尾或者跳到末尾的块都以它为后继
+ */
+public class BasicBlock {
+    int id;
+    final ArrayList<Instruction> code = new ArrayList<>();
+    final ArrayList<BasicBlock> successors = new ArrayList<>();
+    final ArrayList<BasicBlock> predecessors = new ArrayList<>();
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return 块在控制流图中的编号，从 0 开始连续编号，入口块是 0
+     */
+    public int getId() {
+        return id;
+    }
+
+    public List<Instruction> getCode() {
+        return code;
+    }
+
+    public List<BasicBlock> getSuccessors() {
+        return successors;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    /**
+     * @return 执行完最后一条指令以后是否接着执行下一个块
+     */
+    boolean fallsThrough() {
+        if (code.isEmpty()) {
+            return true;
+        }
+        var op = code.get(code.size() - 1).getOpt();
+        return op != Operation.JMP && op != Operation.RET;
+    }
+
+    void link(BasicBlock to) {
+        successors.add(to);
+        to.predecessors.add(this);
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        sb.append('B').append(id).append(" ->");
+        for (var successor : successors) {
+            sb.append(" B").append(successor.id);
+        }
+        sb.append('\n');
+        for (var instruction : code) {
+            sb.append("    ").append(instruction).append('\n');
+        }
+        return sb.toString();
+    }
+}
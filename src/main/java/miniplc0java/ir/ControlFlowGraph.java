@@ -0,0 +1,156 @@
+package miniplc0java.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import miniplc0java.instruction.FunctionDef;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+/**
+ * 一个函数的控制流图
+ *
+ * 从 CodeGenerator 生成的指令序列切出基本块：第一条指令、跳转目标和跳转或返回之后的指令各开始一个块。
+ * 块的顺序就是降级回指令序列时的排列顺序，顺序执行的后继不紧跟在后面时补一条 JMP
+ */
+public class ControlFlowGraph {
+    private final FunctionDef function;
+    private final ArrayList<BasicBlock> blocks = new ArrayList<>();
+
+    // 分析结果的缓存，由 PassManager 读写
+    final HashMap<Analysis<?>, Object> analyses = new HashMap<>();
+
+    private ControlFlowGraph(FunctionDef function) {
+        this.function = function;
+    }
+
+    public static ControlFlowGraph build(FunctionDef function) {
+        var cfg = new ControlFlowGraph(function);
+        var code = function.getBody();
+        int size = code.size();
+        var leader = new boolean[size + 1];
+        leader[0] = true;
+        for (int i = 0; i < size; i++) {
+            var op = code.get(i).getOpt();
+            if (op == Operation.JMP || op == Operation.JZ) {
+                leader[(int) code.get(i).getX()] = true;
+            }
+            if (op == Operation.JMP || op == Operation.JZ || op == Operation.RET) {
+                leader[i + 1] = true;
+            }
+        }
+
+        // blockAt[i] 是从第 i 条指令开始的块
+        var blockAt = new BasicBlock[size + 1];
+        var blocks = cfg.blocks;
+        for (int i = 0; i < size; i++) {
+            if (leader[i]) {
+                blockAt[i] = new BasicBlock(blocks.size());
+                blocks.add(blockAt[i]);
+            }
+            blocks.get(blocks.size() - 1).code.add(code.get(i));
+        }
+        blockAt[size] = new BasicBlock(blocks.size());
+        blocks.add(blockAt[size]);
+
+        for (int k = 0; k + 1 < blocks.size(); k++) {
+            var block = blocks.get(k);
+            var last = block.code.get(block.code.size() - 1);
+            if (last.getOpt() == Operation.JMP) {
+                block.link(blockAt[(int) last.getX()]);
+            } else if (last.getOpt() != Operation.RET) {
+                block.link(blocks.get(k + 1));
+                if (last.getOpt() == Operation.JZ) {
+                    block.link(blockAt[(int) last.getX()]);
+                }
+            }
+        }
+        return cfg;
+    }
+
+    /**
+     * 按块的顺序排回指令序列，跳转的操作数按后继重新填写
+     */
+    public List<Instruction> lower() {
+        int count = blocks.size();
+        var start = new int[count];
+        var jumpAfter = new boolean[count];
+        int position = 0;
+        for (int k = 0; k < count; k++) {
+            var block = blocks.get(k);
+            start[k] = position;
+            position += block.code.size();
+            if (block.fallsThrough()) {
+                var next = k + 1 < count ? blocks.get(k + 1) : null;
+                var to = block.successors.isEmpty() ? null : block.successors.get(0);
+                if (to != next) {
+                    jumpAfter[k] = true;
+                    position++;
+                }
+            }
+        }
+        int end = position;
+
+        var result = new ArrayList<Instruction>(end);
+        for (int k = 0; k < count; k++) {
+            var block = blocks.get(k);
+            for (var instruction : block.code) {
+                if (instruction.getOpt() == Operation.JMP) {
+                    instruction.setX(start[block.successors.get(0).id]);
+                } else if (instruction.getOpt() == Operation.JZ) {
+                    instruction.setX(start[block.successors.get(1).id]);
+                }
+                result.add(instruction);
+            }
+            if (jumpAfter[k]) {
+                // 没有后继的块顺序执行到函数末尾
+                var to = block.successors.isEmpty() ? null : block.successors.get(0);
+                result.add(new Instruction(Operation.JMP, to == null ? end : start[to.id]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 删掉 keep 中对应位置为 false 的块，剩下的块重新编号。被删的块不能是留下的块的后继
+     */
+    public void retain(boolean[] keep) {
+        var kept = new ArrayList<BasicBlock>(blocks.size());
+        for (var block : blocks) {
+            if (keep[block.id]) {
+                kept.add(block);
+            }
+        }
+        for (var block : kept) {
+            block.predecessors.removeIf(p -> !keep[p.id]);
+        }
+        blocks.clear();
+        blocks.addAll(kept);
+        for (int k = 0; k < blocks.size(); k++) {
+            blocks.get(k).id = k;
+        }
+    }
+
+    public FunctionDef getFunction() {
+        return function;
+    }
+
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        sb.append("fn ").append(function.getName()).append('\n');
+        for (var block : blocks) {
+            sb.append(block);
+        }
+        return sb.toString();
+    }
+}
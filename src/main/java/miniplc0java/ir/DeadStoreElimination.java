@@ -0,0 +1,44 @@
+package miniplc0java.ir;
+
+import java.util.BitSet;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+/**
+ * 写了以后再也不会被读的参数和局部变量，把写它的指令换成 POP，要写的值照样算出来
+ *
+ * 留下的 LIT、POP 之类由之后的窥孔优化去掉
+ */
+public class DeadStoreElimination implements Pass {
+    @Override
+    public String getName() {
+        return "dead-stores";
+    }
+
+    @Override
+    public boolean run(ControlFlowGraph cfg, PassManager manager) {
+        var liveness = manager.get(cfg, Liveness.ANALYSIS);
+        int params = cfg.getFunction().getParams();
+        boolean changed = false;
+        for (var block : cfg.getBlocks()) {
+            var live = (BitSet) liveness.liveOut(block).clone();
+            var code = block.code;
+            for (int i = code.size() - 1; i >= 0; i--) {
+                int v = Liveness.variable(code.get(i), params);
+                if (v < 0) {
+                    continue;
+                }
+                if (!Liveness.isStore(code.get(i))) {
+                    live.set(v);
+                } else if (live.get(v)) {
+                    live.clear(v);
+                } else {
+                    code.set(i, new Instruction(Operation.POP));
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,147 @@
+package miniplc0java.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 支配树，用 Cooper、Harvey 和 Kennedy 的迭代算法，按逆后序反复求直接支配者直到不变
+ *
+ * 从入口走不到的块没有直接支配者，也不被任何块支配
+ */
+public class DominatorTree {
+    public static final Analysis<DominatorTree> ANALYSIS = new Analysis<>() {
+        @Override
+        public String getName() {
+            return "dominators";
+        }
+
+        @Override
+        public DominatorTree compute(ControlFlowGraph cfg) {
+            return new DominatorTree(cfg);
+        }
+    };
+
+    private final List<BasicBlock> blocks;
+    // 直接支配者的编号，入口是它自己，走不到的块是 -1
+    private final int[] idom;
+    // 块在逆后序中的位置，走不到的块是 -1
+    private final int[] order;
+    private final ArrayList<ArrayList<BasicBlock>> children = new ArrayList<>();
+
+    DominatorTree(ControlFlowGraph cfg) {
+        blocks = cfg.getBlocks();
+        int count = blocks.size();
+        var rpo = reversePostorder(cfg);
+        order = new int[count];
+        Arrays.fill(order, -1);
+        for (int i = 0; i < rpo.size(); i++) {
+            order[rpo.get(i).id] = i;
+        }
+        idom = new int[count];
+        Arrays.fill(idom, -1);
+        int entry = cfg.getEntry().id;
+        idom[entry] = entry;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < rpo.size(); i++) {
+                var block = rpo.get(i);
+                int dom = -1;
+                for (var predecessor : block.predecessors) {
+                    if (idom[predecessor.id] >= 0) {
+                        dom = dom < 0 ? predecessor.id : intersect(predecessor.id, dom);
+                    }
+                }
+                if (idom[block.id] != dom) {
+                    idom[block.id] = dom;
+                    changed = true;
+                }
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            children.add(new ArrayList<>());
+        }
+        for (int k = 0; k < count; k++) {
+            if (idom[k] >= 0 && k != entry) {
+                children.get(idom[k]).add(blocks.get(k));
+            }
+        }
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (order[a] > order[b]) {
+                a = idom[a];
+            }
+            while (order[b] > order[a]) {
+                b = idom[b];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * @return 从入口出发的逆后序，只含走得到的块
+     */
+    static List<BasicBlock> reversePostorder(ControlFlowGraph cfg) {
+        int count = cfg.getBlocks().size();
+        var visited = new boolean[count];
+        var postorder = new ArrayList<BasicBlock>(count);
+        // 显式的栈，每帧 {块, 下一个要看的后继}
+        var stack = new BasicBlock[count];
+        var next = new int[count];
+        int top = 0;
+        stack[top++] = cfg.getEntry();
+        visited[cfg.getEntry().id] = true;
+        while (top > 0) {
+            var block = stack[top - 1];
+            if (next[top - 1] < block.successors.size()) {
+                var successor = block.successors.get(next[top - 1]++);
+                if (!visited[successor.id]) {
+                    visited[successor.id] = true;
+                    stack[top] = successor;
+                    next[top] = 0;
+                    top++;
+                }
+            } else {
+                postorder.add(block);
+                top--;
+            }
+        }
+        var rpo = new ArrayList<BasicBlock>(postorder.size());
+        for (int i = postorder.size() - 1; i >= 0; i--) {
+            rpo.add(postorder.get(i));
+        }
+        return rpo;
+    }
+
+    /**
+     * @return block 的直接支配者，入口和走不到的块返回 null
+     */
+    public BasicBlock idom(BasicBlock block) {
+        int dom = idom[block.id];
+        return dom < 0 || dom == block.id ? null : blocks.get(dom);
+    }
+
+    /**
+     * @return a 是否支配 b，每个走得到的块都支配它自己
+     */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        if (idom[a.id] < 0 || idom[b.id] < 0) {
+            return false;
+        }
+        int k = b.id;
+        while (order[k] > order[a.id]) {
+            k = idom[k];
+        }
+        return k == a.id;
+    }
+
+    /**
+     * @return 直接支配者是 block 的块
+     */
+    public List<BasicBlock> children(BasicBlock block) {
+        return children.get(block.id);
+    }
+}
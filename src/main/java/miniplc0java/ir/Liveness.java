@@ -0,0 +1,113 @@
+package miniplc0java.ir;
+
+import java.util.BitSet;
+
+import miniplc0java.instruction.Instruction;
+
+/**
+ * 活跃变量分析，变量是函数的参数和局部变量
+ *
+ * 变量编号：第 i 个参数是 i，第 i 个局部变量是参数个数 + i。全局变量可能被调用的函数读写，不在分析范围内。
+ * 从后往前反复算 in = use ∪ (out − def)、out = 各后继的 in 的并，直到不变
+ */
+public class Liveness {
+    public static final Analysis<Liveness> ANALYSIS = new Analysis<>() {
+        @Override
+        public String getName() {
+            return "liveness";
+        }
+
+        @Override
+        public Liveness compute(ControlFlowGraph cfg) {
+            return new Liveness(cfg);
+        }
+    };
+
+    private final BitSet[] in;
+    private final BitSet[] out;
+
+    Liveness(ControlFlowGraph cfg) {
+        var blocks = cfg.getBlocks();
+        int count = blocks.size();
+        int params = cfg.getFunction().getParams();
+        var use = new BitSet[count];
+        var def = new BitSet[count];
+        in = new BitSet[count];
+        out = new BitSet[count];
+        for (var block : blocks) {
+            int k = block.id;
+            use[k] = new BitSet();
+            def[k] = new BitSet();
+            in[k] = new BitSet();
+            out[k] = new BitSet();
+            for (var instruction : block.code) {
+                int v = variable(instruction, params);
+                if (v < 0) {
+                    continue;
+                }
+                if (isStore(instruction)) {
+                    def[k].set(v);
+                } else if (!def[k].get(v)) {
+                    use[k].set(v);
+                }
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = count - 1; k >= 0; k--) {
+                var live = new BitSet();
+                for (var successor : blocks.get(k).successors) {
+                    live.or(in[successor.id]);
+                }
+                out[k] = (BitSet) live.clone();
+                live.andNot(def[k]);
+                live.or(use[k]);
+                if (!live.equals(in[k])) {
+                    in[k] = live;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 进入 block 时活跃的变量，不要修改
+     */
+    public BitSet liveIn(BasicBlock block) {
+        return in[block.id];
+    }
+
+    /**
+     * @return 离开 block 时活跃的变量，不要修改
+     */
+    public BitSet liveOut(BasicBlock block) {
+        return out[block.id];
+    }
+
+    /**
+     * @return 指令读写的变量编号，不读写参数或局部变量时返回 -1
+     */
+    public static int variable(Instruction instruction, int params) {
+        switch (instruction.getOpt()) {
+            case LOADA:
+            case STOREA:
+                return (int) instruction.getX();
+            case LOADL:
+            case STOREL:
+                return params + (int) instruction.getX();
+            default:
+                return -1;
+        }
+    }
+
+    static boolean isStore(Instruction instruction) {
+        switch (instruction.getOpt()) {
+            case STOREA:
+            case STOREL:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
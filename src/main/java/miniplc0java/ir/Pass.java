@@ -0,0 +1,14 @@
+package miniplc0java.ir;
+
+/**
+ * 对一个函数的控制流图做的一遍变换
+ */
+public interface Pass {
+    String getName();
+
+    /**
+     * @param manager 用来取缓存的分析结果
+     * @return 是否改动了控制流图，改动以后所有缓存的分析结果作废
+     */
+    boolean run(ControlFlowGraph cfg, PassManager manager);
+}
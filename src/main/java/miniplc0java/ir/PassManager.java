@@ -0,0 +1,91 @@
+package miniplc0java.ir;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import miniplc0java.instruction.FunctionDef;
+import miniplc0java.instruction.Program;
+
+/**
+ * 把每个函数建成控制流图，按顺序跑一遍登记过的 Pass，再降级回指令序列
+ *
+ * 分析结果按控制流图缓存，Pass 报告改动以后全部作废。建图、降级、每个 Pass 和每种分析各自累计
+ * 运行次数和用时，report() 列出来。Pass 的用时包括它第一次要求计算的分析
+ */
+public class PassManager {
+    private final ArrayList<Pass> passes = new ArrayList<>();
+    // 名字 -> {次数, 纳秒}，按第一次出现的顺序
+    private final LinkedHashMap<String, long[]> timings = new LinkedHashMap<>();
+
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public void run(Program program) {
+        for (var function : program.getFunctions()) {
+            run(function);
+        }
+    }
+
+    public void run(FunctionDef function) {
+        long begin = System.nanoTime();
+        var cfg = ControlFlowGraph.build(function);
+        record("build", begin);
+        for (var pass : passes) {
+            begin = System.nanoTime();
+            if (pass.run(cfg, this)) {
+                invalidate(cfg);
+            }
+            record(pass.getName(), begin);
+        }
+        begin = System.nanoTime();
+        function.setBody(cfg.lower());
+        record("lower", begin);
+    }
+
+    /**
+     * @return cfg 的分析结果，没有缓存时现算
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(ControlFlowGraph cfg, Analysis<T> analysis) {
+        var result = (T) cfg.analyses.get(analysis);
+        if (result == null) {
+            long begin = System.nanoTime();
+            result = analysis.compute(cfg);
+            record(analysis.getName(), begin);
+            cfg.analyses.put(analysis, result);
+        }
+        return result;
+    }
+
+    public void invalidate(ControlFlowGraph cfg) {
+        cfg.analyses.clear();
+    }
+
+    /**
+     * @return 每一项的运行次数和总用时，一行一项
+     */
+    public String report() {
+        var sb = new StringBuilder();
+        for (var entry : timings.entrySet()) {
+            var timing = entry.getValue();
+            sb.append(String.format("%-20s %6d %10.3f ms%n", entry.getKey(), timing[0], timing[1] / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return 名字为 name 的项运行过的次数
+     */
+    public long runs(String name) {
+        var timing = timings.get(name);
+        return timing == null ? 0 : timing[0];
+    }
+
+    private void record(String name, long begin) {
+        var timing = timings.computeIfAbsent(name, n -> new long[2]);
+        timing[0]++;
+        timing[1] += System.nanoTime() - begin;
+    }
+}
@@ -0,0 +1,27 @@
+package miniplc0java.ir;
+
+/**
+ * 删掉从入口走不到的块
+ */
+public class UnreachableBlockElimination implements Pass {
+    @Override
+    public String getName() {
+        return "unreachable-blocks";
+    }
+
+    @Override
+    public boolean run(ControlFlowGraph cfg, PassManager manager) {
+        var blocks = cfg.getBlocks();
+        var keep = new boolean[blocks.size()];
+        for (var block : DominatorTree.reversePostorder(cfg)) {
+            keep[block.id] = true;
+        }
+        for (boolean k : keep) {
+            if (!k) {
+                cfg.retain(keep);
+                return true;
+            }
+        }
+        return false;
+    }
+}
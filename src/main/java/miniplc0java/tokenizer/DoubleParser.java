@@ -0,0 +1,139 @@
+package miniplc0java.tokenizer;
+
+import java.math.BigInteger;
+
+/**
+ * 把 w * 10^q 转换成最接近的 double，w 是十进制尾数，q 是十进制指数
+ *
+ * 先走 Clinger 的快速路径（w 和 10^q 都能被 double 精确表示时只需一次乘除法），
+ * 再走 Eisel–Lemire 算法（用 128 位的 5^q 近似值做一次 64×128 位乘法）。
+ * 两者都不能确定正确舍入的结果时返回 NaN，由调用者退回到 Double.parseDouble
+ */
+final class DoubleParser {
+    private static final int SMALLEST_POWER = -342;
+    private static final int LARGEST_POWER = 308;
+
+    private static final int MANTISSA_BITS = 52;
+    private static final int MINIMUM_EXPONENT = -1023;
+    private static final int INFINITE_POWER = 0x7FF;
+
+    private static final double[] EXACT_POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+            1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    // 5^q 的 128 位近似值，最高位总是 1，下标是 q - SMALLEST_POWER
+    private static final long[] POWER5_HI = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+    private static final long[] POWER5_LO = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+
+    static {
+        var two128 = BigInteger.ONE.shiftLeft(128);
+        var two127 = BigInteger.ONE.shiftLeft(127);
+        var mask64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int q = SMALLEST_POWER; q <= LARGEST_POWER; q++) {
+            BigInteger c;
+            if (q < 0) {
+                // 负指数用 2^b / 5^-q 向上取整
+                var power5 = BigInteger.valueOf(5).pow(-q);
+                int z = power5.bitLength();
+                int b = q >= -27 ? z + 127 : 2 * z + 128;
+                c = BigInteger.ONE.shiftLeft(b).divide(power5).add(BigInteger.ONE);
+                while (c.compareTo(two128) >= 0) {
+                    c = c.shiftRight(1);
+                }
+            } else {
+                // 正指数直接截断到 128 位
+                c = BigInteger.valueOf(5).pow(q);
+                while (c.compareTo(two127) < 0) {
+                    c = c.shiftLeft(1);
+                }
+                while (c.compareTo(two128) >= 0) {
+                    c = c.shiftRight(1);
+                }
+            }
+            POWER5_HI[q - SMALLEST_POWER] = c.shiftRight(64).longValue();
+            POWER5_LO[q - SMALLEST_POWER] = c.and(mask64).longValue();
+        }
+    }
+
+    private DoubleParser() {
+    }
+
+    /**
+     * @param w 无符号的十进制尾数，最多 19 位有效数字
+     * @param q 十进制指数
+     * @return w * 10^q 正确舍入后的 double，无法确定时返回 NaN
+     */
+    static double toDouble(long w, int q) {
+        if (w == 0) {
+            return 0.0;
+        }
+        // Clinger 快速路径
+        if (w >= 0 && w <= (1L << 53) && q >= -22 && q <= 22) {
+            return q < 0 ? (double) w / EXACT_POWERS[-q] : (double) w * EXACT_POWERS[q];
+        }
+        if (q < SMALLEST_POWER) {
+            return 0.0;
+        }
+        if (q > LARGEST_POWER) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return eiselLemire(w, q);
+    }
+
+    private static double eiselLemire(long w, int q) {
+        int lz = Long.numberOfLeadingZeros(w);
+        w <<= lz;
+
+        // w 乘以 5^q 的高 64 位，只有在低位可能向高位进位时才乘第二段
+        int index = q - SMALLEST_POWER;
+        long hi = unsignedMultiplyHigh(w, POWER5_HI[index]);
+        long lo = w * POWER5_HI[index];
+        long precisionMask = 0xFFFFFFFFFFFFFFFFL >>> (MANTISSA_BITS + 3);
+        if ((hi & precisionMask) == precisionMask) {
+            long secondHi = unsignedMultiplyHigh(w, POWER5_LO[index]);
+            lo += secondHi;
+            if (Long.compareUnsigned(secondHi, lo) > 0) {
+                hi++;
+            }
+        }
+        if (lo == 0xFFFFFFFFFFFFFFFFL && (q < -27 || q > 55)) {
+            // 近似值的误差可能影响舍入
+            return Double.NaN;
+        }
+
+        int upperbit = (int) (hi >>> 63);
+        long mantissa = hi >>> (upperbit + 64 - MANTISSA_BITS - 3);
+        int power2 = power(q) + upperbit - lz - MINIMUM_EXPONENT;
+        if (power2 <= 0) {
+            // 非规格化数，交给调用者
+            return Double.NaN;
+        }
+        // 恰好在两个 double 正中间的时候向偶数舍入
+        if ((lo == 0 || lo == 1) && q >= -4 && q <= 23 && (mantissa & 3) == 1) {
+            if ((mantissa << (upperbit + 64 - MANTISSA_BITS - 3)) == hi) {
+                mantissa &= ~1L;
+            }
+        }
+        mantissa += (mantissa & 1);
+        mantissa >>>= 1;
+        if (mantissa >= (2L << MANTISSA_BITS)) {
+            mantissa = 1L << MANTISSA_BITS;
+            power2++;
+        }
+        mantissa &= ~(1L << MANTISSA_BITS);
+        if (power2 >= INFINITE_POWER) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Double.longBitsToDouble(mantissa | ((long) power2 << MANTISSA_BITS));
+    }
+
+    /**
+     * floor(log2(10^q)) + 63 的整数近似
+     */
+    private static int power(int q) {
+        return (((152170 + 65536) * q) >> 16) + 63;
+    }
+
+    private static long unsignedMultiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+}
@@ -0,0 +1,54 @@
+package miniplc0java.tokenizer;
+
+/**
+ * 关键字识别表，由 TokenType 里带拼写的常量生成
+ *
+ * 用 (长度, 首字母) 作为完美哈希的键，C0 的关键字在这个键上没有冲突，
+ * 所以查一次表再比较一次原文就能确定是不是关键字，不需要先拼出字符串
+ */
+final class KeywordTable {
+    private static final int MAX_LENGTH = 8;
+
+    private static final TokenType[] TABLE = new TokenType[(MAX_LENGTH + 1) * 26];
+
+    static {
+        for (TokenType tt : TokenType.values()) {
+            String kw = tt.keyword();
+            if (kw == null) {
+                continue;
+            }
+            int slot = slot(kw.length(), kw.charAt(0));
+            if (kw.length() > MAX_LENGTH || slot < 0 || TABLE[slot] != null) {
+                throw new Error("keyword table is not a perfect hash for " + kw);
+            }
+            TABLE[slot] = tt;
+        }
+    }
+
+    private KeywordTable() {
+    }
+
+    private static int slot(int length, char first) {
+        if (length > MAX_LENGTH || first < 'a' || first > 'z') {
+            return -1;
+        }
+        return length * 26 + (first - 'a');
+    }
+
+    /**
+     * 判断源码中 [start, end) 这一段是不是关键字
+     *
+     * @return 关键字对应的类型，不是关键字则返回 IDENT
+     */
+    static TokenType lookup(StringIter it, int start, int end) {
+        int slot = slot(end - start, it.charAt(start));
+        if (slot < 0) {
+            return TokenType.IDENT;
+        }
+        TokenType candidate = TABLE[slot];
+        if (candidate != null && it.regionMatches(start, candidate.keyword())) {
+            return candidate;
+        }
+        return TokenType.IDENT;
+    }
+}
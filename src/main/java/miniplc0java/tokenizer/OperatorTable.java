@@ -0,0 +1,120 @@
+package miniplc0java.tokenizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 运算符和标点的状态转移表，由 TokenType 里带固定值的非关键字常量生成
+ *
+ * 所有运算符的拼写建成一棵字典树，每个节点是一个状态，(状态, 字符类别) 查表得到下一个状态。
+ * 字符串、字符字面量和注释只有开头在表里，后半段由 Tokenizer 手写处理。
+ * 加一个运算符只需要在 TokenType 里加一个常量
+ */
+final class OperatorTable {
+    // 开头在表里、后半段需要手写的 token
+    private static final Object[][] OPENERS = {
+            { "\"", TokenType.STRING_LITERAL },
+            { "'", TokenType.CHAR_LITERAL },
+            { "//", TokenType.COMMENT },
+    };
+
+    // ASCII 字符到字符类别的映射，0 表示不会出现在任何运算符里
+    private static final byte[] CHAR_CLASS = new byte[128];
+    private static final int CLASS_COUNT;
+    // NEXT[state * CLASS_COUNT + cls] 是下一个状态，0 表示没有转移（0 是初始状态，不会被转移到）
+    private static final short[] NEXT;
+    // 到达这个状态时能接受的 token 类型，不能接受则为 null
+    private static final TokenType[] ACCEPT;
+
+    static {
+        var spellings = new ArrayList<String>();
+        var types = new ArrayList<TokenType>();
+        for (TokenType tt : TokenType.values()) {
+            if (tt.fixedValue() != null && tt.keyword() == null) {
+                spellings.add(tt.fixedValue().toString());
+                types.add(tt);
+            }
+        }
+        for (Object[] opener : OPENERS) {
+            spellings.add((String) opener[0]);
+            types.add((TokenType) opener[1]);
+        }
+
+        int classes = 1;
+        for (String s : spellings) {
+            for (int i = 0; i < s.length(); i++) {
+                char ch = s.charAt(i);
+                if (ch >= 128) {
+                    throw new Error("operator is not ASCII: " + s);
+                }
+                if (CHAR_CLASS[ch] == 0) {
+                    CHAR_CLASS[ch] = (byte) classes++;
+                }
+            }
+        }
+        CLASS_COUNT = classes;
+
+        short[] next = new short[classes * 16];
+        TokenType[] accept = new TokenType[16];
+        int states = 1;
+        for (int k = 0; k < spellings.size(); k++) {
+            String s = spellings.get(k);
+            int state = 0;
+            for (int i = 0; i < s.length(); i++) {
+                int slot = state * classes + CHAR_CLASS[s.charAt(i)];
+                if (next[slot] == 0) {
+                    if (states == accept.length) {
+                        accept = Arrays.copyOf(accept, states * 2);
+                        next = Arrays.copyOf(next, states * 2 * classes);
+                    }
+                    next[slot] = (short) states++;
+                }
+                state = next[slot];
+            }
+            if (accept[state] != null) {
+                throw new Error("duplicate operator " + s);
+            }
+            accept[state] = types.get(k);
+        }
+        NEXT = Arrays.copyOf(next, states * classes);
+        ACCEPT = Arrays.copyOf(accept, states);
+    }
+
+    private OperatorTable() {
+    }
+
+    /**
+     * 从当前位置开始按最长匹配读一个运算符或者标点，指针停在匹配到的拼写之后
+     *
+     * @return 匹配到的类型，匹配不到则返回 null，此时指针不动
+     */
+    static TokenType match(StringIter it) {
+        int state = 0;
+        int read = 0;
+        int matched = 0;
+        TokenType result = null;
+        while (true) {
+            char ch = it.peekChar();
+            int cls = ch < 128 ? CHAR_CLASS[ch] : 0;
+            if (cls == 0) {
+                break;
+            }
+            int target = NEXT[state * CLASS_COUNT + cls];
+            if (target == 0) {
+                break;
+            }
+            it.nextChar();
+            read++;
+            state = target;
+            if (ACCEPT[state] != null) {
+                result = ACCEPT[state];
+                matched = read;
+            }
+        }
+        // 读过头的部分退回去，比如单独的 '!'
+        for (; read > matched; read--) {
+            it.unreadLast();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,205 @@
+package miniplc0java.tokenizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import miniplc0java.error.TokenizeError;
+
+/**
+ * 把扁平的源码按行切成几块，在 ForkJoinPool 上分别切 token，再按顺序拼起来
+ *
+ * 每一块都从某一行的开头开始猜测性地切分，这个猜测可能是错的（比如这一行其实在一个跨行的字符串里）。
+ * 词法分析器在两个 token 之间的状态只有指针位置，所以拼接的时候只要真正的切分位置
+ * 落在某一块记录下来的 token 边界上，之后的结果就一定和顺序切分一致；
+ * 落不上的时候就从真正的位置开始顺序地重新切，直到重新对齐为止
+ */
+final class ParallelTokenizer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final StringIter source;
+    private final int length;
+
+    ParallelTokenizer(StringIter source) {
+        this.source = source;
+        this.length = source.length();
+    }
+
+    /**
+     * 一块源码猜测性切分的结果，注释也会记录下来，因为它们的结束位置也是合法的边界
+     */
+    private static final class Chunk {
+        final int start;
+        final int limit;
+        byte[] types = new byte[256];
+        int[] ends = new int[256];
+        int[] starts = new int[256];
+        Object[] values = new Object[256];
+        int count = 0;
+        // 中途遇到了词法错误，错误可能是猜错了起点造成的，所以先不抛出
+        boolean failed = false;
+
+        Chunk(int start, int limit) {
+            this.start = start;
+            this.limit = limit;
+        }
+
+        void add(TokenType tokenType, int tokenStart, int tokenEnd, Object value) {
+            if (count == types.length) {
+                types = Arrays.copyOf(types, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            types[count] = (byte) tokenType.ordinal();
+            starts[count] = tokenStart;
+            ends[count] = tokenEnd;
+            values[count] = value;
+            count++;
+        }
+
+        /**
+         * 第 i 个 token 之前的边界：第 0 个是块的起点，其余是前一个 token 的结束位置
+         */
+        int boundary(int i) {
+            return i == 0 ? start : ends[i - 1];
+        }
+
+        /**
+         * 找到等于 offset 的边界
+         *
+         * @return 边界之后第一个 token 的下标，找不到返回 -1
+         */
+        int find(int offset) {
+            if (offset == start) {
+                return 0;
+            }
+            int i = Arrays.binarySearch(ends, 0, count, offset);
+            return i >= 0 ? i + 1 : -1;
+        }
+
+        /**
+         * @return 这一块最后一个边界
+         */
+        int lastBoundary() {
+            return boundary(count);
+        }
+    }
+
+    TokenBuffer tokenize(ForkJoinPool pool, int chunkSize) throws TokenizeError {
+        var chunks = split(chunkSize);
+        var tasks = new ArrayList<ForkJoinTask<Chunk>>();
+        for (var chunk : chunks) {
+            tasks.add(pool.submit(() -> lexChunk(chunk)));
+        }
+        var result = new TokenBuffer(source);
+        int pos = 0;
+        for (var task : tasks) {
+            Chunk chunk;
+            try {
+                chunk = task.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new Error("parallel tokenization failed", e);
+            }
+            if (result.done) {
+                break;
+            }
+            pos = merge(result, chunk, pos);
+        }
+        if (!result.done) {
+            // 空文件，或者最后一个 token 恰好结束在文件末尾，还差一个 EOF
+            relex(result, pos, Integer.MAX_VALUE, null);
+        }
+        return result;
+    }
+
+    /**
+     * 按行切块，每一块都从一行的开头开始
+     */
+    private ArrayList<Chunk> split(int chunkSize) {
+        var chunks = new ArrayList<Chunk>();
+        int start = 0;
+        while (start < length) {
+            int limit = Math.min(length, start + Math.max(chunkSize, 1));
+            while (limit < length && source.charAt(limit - 1) != '\n') {
+                limit++;
+            }
+            chunks.add(new Chunk(start, limit));
+            start = limit;
+        }
+        return chunks;
+    }
+
+    /**
+     * 从块的起点开始切，直到某个 token 越过块的末尾
+     */
+    private Chunk lexChunk(Chunk chunk) {
+        var tokenizer = new Tokenizer(source.view(chunk.start));
+        try {
+            while (true) {
+                var tokenType = tokenizer.lexNext();
+                chunk.add(tokenType, tokenizer.tokenStart(), tokenizer.tokenEnd(), tokenizer.tokenValue());
+                if (tokenType == TokenType.EOF || tokenizer.tokenEnd() >= chunk.limit) {
+                    break;
+                }
+            }
+        } catch (TokenizeError e) {
+            chunk.failed = true;
+        }
+        return chunk;
+    }
+
+    /**
+     * 把一块的结果接到 result 后面
+     *
+     * @param pos 顺序切分时下一个 token 之前的边界
+     * @return 接完之后的边界
+     */
+    private int merge(TokenBuffer result, Chunk chunk, int pos) throws TokenizeError {
+        if (pos >= chunk.limit) {
+            // 上一个 token 已经把这一块整个吞掉了
+            return pos;
+        }
+        int first = chunk.find(pos);
+        if (first < 0) {
+            // 没对齐，从真正的位置顺序地切，直到落在这一块的某个边界上
+            pos = relex(result, pos, chunk.limit, chunk);
+            if (result.done || pos >= chunk.limit) {
+                return pos;
+            }
+            first = chunk.find(pos);
+        }
+        for (int i = first; i < chunk.count; i++) {
+            result.append(TYPES[chunk.types[i]], chunk.starts[i], chunk.ends[i], chunk.values[i]);
+        }
+        pos = chunk.lastBoundary();
+        if (chunk.failed) {
+            // 对齐以后的错误是真的错误，顺序地重新切一遍把它抛出来
+            pos = relex(result, pos, chunk.limit, null);
+        }
+        return pos;
+    }
+
+    /**
+     * 从 pos 开始顺序地切，直到越过 limit，或者落在 chunk 的某个边界上
+     *
+     * @return 停下来时的边界
+     */
+    private int relex(TokenBuffer result, int pos, int limit, Chunk chunk) throws TokenizeError {
+        var tokenizer = new Tokenizer(source.view(pos));
+        while (pos < limit) {
+            var tokenType = tokenizer.lexNext();
+            result.append(tokenType, tokenizer.tokenStart(), tokenizer.tokenEnd(), tokenizer.tokenValue());
+            pos = tokenizer.tokenEnd();
+            if (tokenType == TokenType.EOF) {
+                break;
+            }
+            if (chunk != null && chunk.find(pos) >= 0) {
+                break;
+            }
+        }
+        return pos;
+    }
+}
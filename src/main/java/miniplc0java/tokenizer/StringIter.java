@@ -1,7 +1,17 @@
 package miniplc0java.tokenizer;
 
-import java.util.ArrayList;
-import java.util.Optional;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Scanner;
 
 import miniplc0java.util.Pos;
@@ -10,142 +20,548 @@ import miniplc0java.util.Pos;
  * 这是一个从 C++ 版本抄过来的字符迭代器
  */
 public class StringIter {
-    // 以行为基础的缓冲区
-    ArrayList<String> linesBuffer = new ArrayList<>();
+    // 流式模式下默认的环形缓冲区大小
+    public static final int DEFAULT_WINDOW = 1 << 16;
+
+    // 整个源文件的扁平缓冲区，只有 [0, length) 是有效内容
+    // 流式模式下是一个环形缓冲区，偏移 off 的字符存在 buffer[off & mask]
+    char[] buffer = new char[0];
+    int length = 0;
+    // 扁平模式下 mask 是全 1，这样两种模式可以共用同一套下标计算
+    int mask = -1;
+    // 字节模式下源码不解码，直接存 UTF-8 字节，偏移也是字节偏移。此时 buffer 不使用
+    byte[] bytes;
+    boolean rawBytes = false;
 
     Scanner scanner;
+    Path path;
+
+    // 流式模式的输入
+    ReadableByteChannel channel;
+    CharsetDecoder decoder;
+    ByteBuffer inBytes;
+    CharBuffer chunk;
+    boolean inputEnded = false;
+    boolean channelDone = false;
+
     // 指向下一个要读取的字符
-    Pos ptrNext = new Pos(0, 0);
+    int ptr = 0;
+    // 流式模式下必须留在窗口里的最小偏移，一般是正在切分的 token 的开头，-1 表示没有
+    int pinned = -1;
 
-    Pos ptr = new Pos(0, 0);
+    // 每一行第一个字符的偏移，第一次需要 Pos 的时候才构建
+    // 流式模式下随着读入增量维护，并且只保留窗口内的行，firstLine 是 lineStarts[0] 的行号
+    int[] lineStarts = null;
+    int lineCount = 0;
+    int firstLine = 0;
 
     boolean initialized = false;
 
-    Optional<Character> peeked = Optional.empty();
+    // view() 得到的迭代器指向原来的迭代器，行首表只在原来的迭代器上构建一次
+    StringIter origin;
 
     public StringIter(Scanner scanner) {
         this.scanner = scanner;
     }
 
-    // 从这里开始其实是一个基于行号的缓冲区的实现
-    // 为了简单起见，我们没有单独拿出一个类实现
+    /**
+     * 直接把文件映射进内存，不经过 Scanner 按行切分
+     */
+    public StringIter(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 映射文件，rawBytes 为 true 时不解码成 char，直接在 UTF-8 字节上做词法分析
+     */
+    public StringIter(Path path, boolean rawBytes) {
+        this.path = path;
+        this.rawBytes = rawBytes;
+    }
+
+    /**
+     * 字节模式：直接在 UTF-8 字节上做词法分析，只有字符串和字符字面量里的多字节字符才会被解码
+     */
+    public StringIter(byte[] utf8) {
+        this.bytes = utf8;
+        this.length = utf8.length;
+        this.rawBytes = true;
+        this.initialized = true;
+    }
+
+    /**
+     * 流式模式：从 channel 中边读边解析，只占用固定大小的环形缓冲区
+     *
+     * @param windowSize 缓冲区大小，会向上取整到 2 的幂
+     */
+    public StringIter(ReadableByteChannel channel, int windowSize) {
+        int capacity = Integer.highestOneBit(Math.max(windowSize, 16) - 1) << 1;
+        this.channel = channel;
+        this.buffer = new char[capacity];
+        this.mask = capacity - 1;
+        this.chunk = CharBuffer.allocate(capacity / 2);
+        this.inBytes = ByteBuffer.allocate(capacity / 2);
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.lineStarts = new int[16];
+        this.lineCount = 1;
+        this.initialized = true;
+    }
+
+    public StringIter(ReadableByteChannel channel) {
+        this(channel, DEFAULT_WINDOW);
+    }
+
+    public StringIter(String source) {
+        this.buffer = source.toCharArray();
+        this.length = buffer.length;
+        this.initialized = true;
+    }
+
+    /**
+     * 共享同一个扁平缓冲区、但指针从 start 开始的迭代器，用于并行切分 token
+     */
+    public StringIter view(int start) {
+        readAll();
+        if (isStreaming()) {
+            throw new Error("cannot create a view of a streaming source");
+        }
+        var view = new StringIter(scanner);
+        view.buffer = buffer;
+        view.bytes = bytes;
+        view.rawBytes = rawBytes;
+        view.length = length;
+        view.origin = origin != null ? origin : this;
+        view.ptr = start;
+        view.initialized = true;
+        return view;
+    }
+
+    /**
+     * 把 [offset, offset + removed) 替换成 inserted 以后的新源码，用于增量分析。
+     * 原来的迭代器不变，已经构造出来的 Token 还能继续从它解码。字节模式下偏移是字节偏移
+     */
+    public StringIter edit(int offset, int removed, String inserted) {
+        readAll();
+        if (isStreaming()) {
+            throw new Error("cannot edit a streaming source");
+        }
+        if (offset < 0 || removed < 0 || offset + removed > length) {
+            throw new Error("edit outside of source");
+        }
+        if (rawBytes) {
+            byte[] add = inserted.getBytes(StandardCharsets.UTF_8);
+            byte[] edited = new byte[length - removed + add.length];
+            System.arraycopy(bytes, 0, edited, 0, offset);
+            System.arraycopy(add, 0, edited, offset, add.length);
+            System.arraycopy(bytes, offset + removed, edited, offset + add.length, length - offset - removed);
+            return new StringIter(edited);
+        }
+        char[] edited = new char[length - removed + inserted.length()];
+        System.arraycopy(buffer, 0, edited, 0, offset);
+        inserted.getChars(0, inserted.length(), edited, offset);
+        System.arraycopy(buffer, offset + removed, edited, offset + inserted.length(), length - offset - removed);
+        var iter = new StringIter(scanner);
+        iter.buffer = edited;
+        iter.length = edited.length;
+        iter.initialized = true;
+        return iter;
+    }
+
+    /**
+     * @return 源码的总长度，流式模式下是目前已经读入的长度
+     */
+    public int length() {
+        readAll();
+        return length;
+    }
+
+    // 从这里开始其实是一个基于偏移的缓冲区的实现
     // 核心思想和 C 的文件输入输出类似，就是一个 buffer 加一个指针，有三个细节
     // 1.缓冲区包括 \n
     // 2.指针始终指向下一个要读取的 char
-    // 3.行号和列号从 0 开始
+    // 3.行号和列号从 0 开始，只有在需要 Pos 的时候才由偏移换算出来
 
-    // 一次读入全部内容，并且替换所有换行为 \n
-    // 这样其实是不合理的，这里只是简单起见这么实现
+    // 一次读入全部内容
     public void readAll() {
         if (initialized) {
             return;
         }
-        while (scanner.hasNext()) {
-            linesBuffer.add(scanner.nextLine() + '\n');
+        if (path != null) {
+            mapFile();
+        } else {
+            var sb = new StringBuilder();
+            while (scanner.hasNext()) {
+                sb.append(scanner.nextLine()).append('\n');
+            }
+            buffer = new char[sb.length()];
+            sb.getChars(0, sb.length(), buffer, 0);
+            length = buffer.length;
         }
-        // todo:check read \n?
         initialized = true;
     }
 
+    private void mapFile() {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (rawBytes) {
+                bytes = new byte[mapped.remaining()];
+                mapped.get(bytes);
+                length = bytes.length;
+                return;
+            }
+            CharBuffer chars = StandardCharsets.UTF_8.decode(mapped);
+            if (chars.hasArray() && chars.arrayOffset() == 0) {
+                buffer = chars.array();
+                length = chars.remaining();
+            } else {
+                buffer = new char[chars.remaining()];
+                chars.get(buffer);
+                length = buffer.length;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 流式模式下补充缓冲区。只有指针追上已读入的内容时才会调用，
+     * 指针之前最多保留半个缓冲区，供 unreadLast() 和报错位置使用。
+     * pin() 固定的偏移之后的内容一直保留，剩下不到两格时缓冲区扩大一倍
+     */
+    private void refill() {
+        if (channelDone) {
+            return;
+        }
+        int low = Math.max(0, ptr - buffer.length / 2);
+        if (pinned >= 0) {
+            low = Math.min(low, pinned);
+        }
+        try {
+            while (length == ptr && !channelDone) {
+                int free = buffer.length - (length - low);
+                // 补充平面的字符解码成两个 char，只剩一格时解码器一个字符也放不进去，会一直原地打转
+                if (free < 2) {
+                    grow(low);
+                    free = buffer.length - (length - low);
+                }
+                chunk.clear();
+                chunk.limit(Math.min(free, chunk.capacity()));
+                if (!inputEnded && channel.read(inBytes) < 0) {
+                    inputEnded = true;
+                }
+                inBytes.flip();
+                var result = decoder.decode(inBytes, chunk, inputEnded);
+                if (inputEnded && result.isUnderflow() && decoder.flush(chunk).isUnderflow()) {
+                    channelDone = true;
+                }
+                inBytes.compact();
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    char ch = chunk.get();
+                    buffer[length & mask] = ch;
+                    length++;
+                    if (ch == '\n') {
+                        addLineStart(length, low);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 环形缓冲区扩大一倍，[low, length) 搬到新缓冲区里对应的位置
+     */
+    private void grow(int low) {
+        var grown = new char[buffer.length * 2];
+        int grownMask = grown.length - 1;
+        for (int i = low; i < length; i++) {
+            grown[i & grownMask] = buffer[i & mask];
+        }
+        buffer = grown;
+        mask = grownMask;
+    }
+
+    /**
+     * 流式模式下让 offset 之后的内容一直留在窗口里，直到下一次 pin() 或 unpin()。
+     * Tokenizer 每切一个 token 都固定它的开头，再长的 token 也能从窗口里取出来
+     */
+    public void pin(int offset) {
+        pinned = offset;
+    }
+
+    public void unpin() {
+        pinned = -1;
+    }
+
+    private void addLineStart(int start, int low) {
+        if (lineCount == lineStarts.length) {
+            // 丢掉已经完全滑出窗口的行
+            int drop = 0;
+            while (drop + 1 < lineCount && lineStarts[drop + 1] <= low) {
+                drop++;
+            }
+            if (drop > 0) {
+                System.arraycopy(lineStarts, drop, lineStarts, 0, lineCount - drop);
+                lineCount -= drop;
+                firstLine += drop;
+            } else {
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            }
+        }
+        lineStarts[lineCount++] = start;
+    }
+
+    private void buildLineStarts() {
+        var starts = new int[16];
+        int count = 1;
+        for (int i = 0; i < length; i++) {
+            if (charAt(i) == '\n') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        lineStarts = starts;
+        lineCount = count;
+    }
+
+    /**
+     * 把偏移换算成行列号，二分查找行首表
+     */
+    public Pos posAt(int offset) {
+        if (origin != null) {
+            return origin.posAt(offset);
+        }
+        if (lineStarts == null) {
+            buildLineStarts();
+        }
+        if (offset < lineStarts[0]) {
+            throw new Error("position outside of streaming window");
+        }
+        int lo = 0, hi = lineCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (lineStarts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (rawBytes) {
+            return new Pos(firstLine + lo, charColumn(lineStarts[lo], offset));
+        }
+        return new Pos(firstLine + lo, offset - lineStarts[lo]);
+    }
+
+    /**
+     * 字节模式下把行内的字节偏移换算成字符列号，和解码以后的 char 下标一致
+     */
+    private int charColumn(int lineStart, int offset) {
+        int col = 0;
+        for (int i = lineStart; i < offset; i++) {
+            int b = bytes[i] & 0xff;
+            if ((b & 0xc0) != 0x80) {
+                // 四字节序列解码后是一对代理项，占两个 char
+                col += (b & 0xf8) == 0xf0 ? 2 : 1;
+            }
+        }
+        return col;
+    }
+
     // 一个简单的总结
-    // | 0 | 1 | 2 | 3 | 4 | 5 | 6 | 7 | 8 | 9 | 偏移
-    // | = | = | = | = | = | = | = | = | = | = |
-    // | h | a | 1 | 9 | 2 | 6 | 0 | 8 | 1 | \n |（缓冲区第0行）
-    // | 7 | 1 | 1 | 4 | 5 | 1 | 4 | （缓冲区第1行）
-    // 这里假设指针指向第一行的 \n，那么有
+    // | 0 | 1 | 2 | 3 | 4 | 5 | 6 | 7 | 8 | 9 | 10| 11| 12| 13| 14| 15| 16| 偏移
+    // | h | a | 1 | 9 | 2 | 6 | 0 | 8 | 1 | \n| 7 | 1 | 1 | 4 | 5 | 1 | 4 |
+    // 这里假设指针指向偏移 9 的 \n，那么有
     // nextPos() = (1, 0)
     // currentPos() = (0, 9)
     // previousPos() = (0, 8)
-    // nextChar() = '\n' 并且指针移动到 (1, 0)
-    // unreadLast() 指针移动到 (0, 8)
+    // nextChar() = '\n' 并且指针移动到偏移 10
+    // unreadLast() 指针移动到偏移 8
     /**
      * 获取下一个字符的位置
      */
     public Pos nextPos() {
-        if (ptr.row >= linesBuffer.size()) {
+        if (isEOF()) {
             throw new Error("advance after EOF");
         }
-        if (ptr.col == linesBuffer.get(ptr.row).length() - 1) {
-            return new Pos(ptr.row + 1, 0);
-        }
-        return new Pos(ptr.row, ptr.col + 1);
+        return posAt(ptr + 1);
     }
 
     /**
      * 获取当前字符的位置
      */
     public Pos currentPos() {
-        return ptr;
+        return posAt(ptr);
     }
 
     /**
      * 获取上一个字符的位置
      */
     public Pos previousPos() {
-        if (ptr.row == 0 && ptr.col == 0) {
+        if (ptr == 0) {
             throw new Error("previous position from beginning");
         }
-        if (ptr.col == 0) {
-            return new Pos(ptr.row - 1, linesBuffer.get(ptr.row - 1).length() - 1);
-        }
-        return new Pos(ptr.row, ptr.col - 1);
+        return posAt(ptr - 1);
     }
 
     /**
-     * 将指针指向下一个字符，并返回当前字符
+     * 获取指针的偏移
      */
-    public char nextChar() {
-        if (this.peeked.isPresent()) {
-            char ch = this.peeked.get();
-            this.peeked = Optional.empty();
-            this.ptr = ptrNext;
-            return ch;
-        } else {
-            char ch = this.getNextChar();
-            this.ptr = ptrNext;
-            return ch;
+    public int currentOffset() {
+        return ptr;
+    }
+
+    /**
+     * 是否是流式模式，流式模式下已经滑出窗口的内容不能再访问
+     */
+    public boolean isStreaming() {
+        return channel != null;
+    }
+
+    /**
+     * 是否是字节模式，字节模式下 charAt() 等方法返回的是单个 UTF-8 字节
+     */
+    public boolean isRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * 获取偏移 offset 处的字符，offset 必须已经读入（流式模式下还必须在窗口内）
+     */
+    public char charAt(int offset) {
+        if (rawBytes) {
+            return (char) (bytes[offset] & 0xff);
         }
+        return buffer[offset & mask];
     }
 
+    /**
+     * [start, start + s.length()) 这一段是否和 s 相同
+     */
+    public boolean regionMatches(int start, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (charAt(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-//    //自己试试，把指针回退一格
-//    public void backoff(){
-//        ptrNext = ptr;
-//        this.ptr=previousPos();
-//        char result = linesBuffer.get(ptrNext.row).charAt(ptrNext.col);
-//        System.out.println(result);
-//        this.peeked = Optional.of(result);
-//    }
+    /**
+     * 把 [start, end) 这一段取出来作为字符串
+     */
+    public String substring(int start, int end) {
+        if (rawBytes) {
+            return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        }
+        if (channel == null) {
+            return new String(buffer, start, end - start);
+        }
+        if (length - start > buffer.length) {
+            throw new Error("substring outside of streaming window");
+        }
+        var sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            sb.append(buffer[i & mask]);
+        }
+        return sb.toString();
+    }
 
-    private char getNextChar() {
+    /**
+     * 将指针指向下一个字符，并返回当前字符
+     */
+    public char nextChar() {
         if (isEOF()) {
             return 0;
         }
-        char result = linesBuffer.get(ptrNext.row).charAt(ptrNext.col);
-        ptrNext = nextPos();
-        return result;
+        return charAt(ptr++);
     }
 
     /**
      * 查看下一个字符，但不移动指针
      */
     public char peekChar() {
-        if (peeked.isPresent()) {
-            return peeked.get();
-        } else {
-            char ch = getNextChar();
-            this.peeked = Optional.of(ch);
-            return ch;
+        if (isEOF()) {
+            return 0;
+        }
+        return charAt(ptr);
+    }
+
+    /**
+     * 查看下一个完整的字符。字节模式下会解码一个 UTF-8 序列，其余模式就是 peekChar()
+     */
+    public int peekCodePoint() {
+        if (!rawBytes || peekChar() < 0x80) {
+            return peekChar();
+        }
+        int b = bytes[ptr] & 0xff;
+        int n = sequenceLength(b);
+        if (n == 1 || ptr + n > length) {
+            return 0xfffd;
+        }
+        int cp = b & (0x7f >> n);
+        for (int i = 1; i < n; i++) {
+            int c = bytes[ptr + i] & 0xff;
+            if ((c & 0xc0) != 0x80) {
+                return 0xfffd;
+            }
+            cp = (cp << 6) | (c & 0x3f);
+        }
+        return cp;
+    }
+
+    /**
+     * 跳过一个完整的字符，字节模式下会跳过整个 UTF-8 序列
+     */
+    public void skipCodePoint() {
+        if (isEOF()) {
+            return;
+        }
+        if (!rawBytes) {
+            ptr++;
+            return;
+        }
+        ptr++;
+        while (ptr < length && (bytes[ptr] & 0xc0) == 0x80) {
+            ptr++;
         }
     }
 
+    /**
+     * @return 以 b 开头的 UTF-8 序列的长度，b 不是合法的首字节时返回 1
+     */
+    private static int sequenceLength(int b) {
+        if ((b & 0xe0) == 0xc0) {
+            return 2;
+        } else if ((b & 0xf0) == 0xe0) {
+            return 3;
+        } else if ((b & 0xf8) == 0xf0) {
+            return 4;
+        }
+        return 1;
+    }
+
     public Boolean isEOF() {
-        return ptr.row >= linesBuffer.size();
+        if (ptr >= length && channel != null) {
+            refill();
+        }
+        return ptr >= length;
     }
 
     // Note: Is it evil to unread a buffer?
     public void unreadLast() {
-        ptr = previousPos();
+        if (ptr == 0) {
+            throw new Error("previous position from beginning");
+        }
+        if (channel != null && length - (ptr - 1) > buffer.length) {
+            throw new Error("unread outside of streaming window");
+        }
+        ptr--;
     }
 
 }
@@ -1,6 +1,5 @@
 package miniplc0java.tokenizer;
 
-import miniplc0java.error.TokenizeError;
 import miniplc0java.util.Pos;
 
 import java.util.Objects;
@@ -8,6 +7,10 @@ import java.util.Objects;
 public class Token {
     private TokenType tokenType;
     private Object value;
+    // 位置平时只存偏移，需要报错的时候才通过 source 换算成 Pos
+    private int startOffset = -1;
+    private int endOffset = -1;
+    private StringIter source;
     private Pos startPos;
     private Pos endPos;
 
@@ -18,9 +21,30 @@ public class Token {
         this.endPos = endPos;
     }
 
+    public Token(TokenType tokenType, Object value, int startOffset, int endOffset, StringIter source) {
+        this.tokenType = tokenType;
+        this.value = value;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.source = source;
+    }
+
+    /**
+     * 值还没有解码的 token，第一次调用 getValue() 时才从 source 的 [startOffset, endOffset) 里取出来
+     */
+    public Token(TokenType tokenType, int startOffset, int endOffset, StringIter source) {
+        this.tokenType = tokenType;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.source = source;
+    }
+
     public Token(Token token) {
         this.tokenType = token.tokenType;
         this.value = token.value;
+        this.startOffset = token.startOffset;
+        this.endOffset = token.endOffset;
+        this.source = token.source;
         this.startPos = token.startPos;
         this.endPos = token.endPos;
     }
@@ -32,22 +56,77 @@ public class Token {
         if (o == null || getClass() != o.getClass())
             return false;
         Token token = (Token) o;
-        return tokenType == token.tokenType && Objects.equals(value, token.value)
-                && Objects.equals(startPos, token.startPos) && Objects.equals(endPos, token.endPos);
+        if (tokenType != token.tokenType || !Objects.equals(getValue(), token.getValue()))
+            return false;
+        // 两边都有偏移时直接比偏移，不必换算成 Pos
+        if (source != null && token.source != null)
+            return startOffset == token.startOffset && endOffset == token.endOffset;
+        return Objects.equals(getStartPos(), token.getStartPos()) && Objects.equals(getEndPos(), token.getEndPos());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(tokenType, value, startPos, endPos);
+        return Objects.hash(tokenType, getValue());
     }
 
     public String getValueString() {
+        var value = getValue();
         if (value instanceof Integer || value instanceof String || value instanceof Character) {
             return value.toString();
         }
         throw new Error("No suitable cast for token value.");
     }
 
+    /**
+     * 从源码中解码 token 的值
+     */
+    private Object decodeValue() {
+        switch (tokenType) {
+            case STRING_LITERAL:
+                return decodeString(startOffset + 1, endOffset - 1);
+            case CHAR_LITERAL:
+                char ch = source.charAt(startOffset + 1);
+                if (ch == '\\') {
+                    return (char) Tokenizer.escapedChar(source.charAt(startOffset + 2));
+                }
+                if (ch >= 0x80 && source.isRawBytes()) {
+                    // 字节模式下多字节的字符要解码
+                    return source.substring(startOffset + 1, endOffset - 1).charAt(0);
+                }
+                return ch;
+            default:
+                if (tokenType.fixedValue() != null) {
+                    return tokenType.fixedValue();
+                }
+                return source.substring(startOffset, endOffset);
+        }
+    }
+
+    private String decodeString(int start, int end) {
+        // 先整段取出来，字节模式下多字节字符在这里一次解码
+        var text = source.substring(start, end);
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+        var sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == '\\' && i + 1 < text.length()) {
+                char x = text.charAt(++i);
+                int escaped = Tokenizer.escapedChar(x);
+                if (escaped < 0) {
+                    // 不认识的转义原样保留
+                    sb.append(ch).append(x);
+                } else {
+                    sb.append((char) escaped);
+                }
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+
     public TokenType getTokenType() {
         return tokenType;
     }
@@ -57,6 +136,9 @@ public class Token {
     }
 
     public Object getValue() {
+        if (value == null && source != null) {
+            value = decodeValue();
+        }
         return value;
     }
 
@@ -65,6 +147,9 @@ public class Token {
     }
 
     public Pos getStartPos() {
+        if (startPos == null && source != null) {
+            startPos = source.posAt(startOffset);
+        }
         return startPos;
     }
 
@@ -73,9 +158,26 @@ public class Token {
     }
 
     public Pos getEndPos() {
+        if (endPos == null && source != null) {
+            endPos = source.posAt(endOffset);
+        }
         return endPos;
     }
 
+    /**
+     * @return token 第一个字符的偏移，如果 token 是直接用 Pos 构造的则为 -1
+     */
+    public int getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * @return token 最后一个字符之后的偏移，如果 token 是直接用 Pos 构造的则为 -1
+     */
+    public int getEndOffset() {
+        return endOffset;
+    }
+
     public void setEndPos(Pos endPos) {
         this.endPos = endPos;
     }
@@ -83,15 +185,15 @@ public class Token {
     @Override
     public String toString() {
         var sb = new StringBuilder();
-        sb.append("Line: ").append(this.startPos.row).append(' ');
-        sb.append("Column: ").append(this.startPos.col).append(' ');
+        sb.append("Line: ").append(this.getStartPos().row).append(' ');
+        sb.append("Column: ").append(this.getStartPos().col).append(' ');
         sb.append("Type: ").append(this.tokenType).append(' ');
-        sb.append("Value: ").append(this.value);
+        sb.append("Value: ").append(this.getValue());
         return sb.toString();
     }
 
     public String toStringAlt() {
-        return new StringBuilder().append("Token(").append(this.tokenType).append(", value: ").append(value)
-                .append("at: ").append(this.startPos).toString();
+        return new StringBuilder().append("Token(").append(this.tokenType).append(", value: ").append(getValue())
+                .append("at: ").append(this.getStartPos()).toString();
     }
 }
@@ -0,0 +1,366 @@
+package miniplc0java.tokenizer;
+
+import java.util.Arrays;
+
+import miniplc0java.error.TokenizeError;
+import miniplc0java.util.Interner;
+import miniplc0java.util.Pos;
+
+/**
+ * 按列存储的 token 流
+ *
+ * 每个 token 只占 types/starts/ends 三个数组里的一格，不为每个 token 分配对象。
+ * 值在词法分析时就确定的 token（数字字面量，流式模式下的字符串）放在侧表里，
+ * 其余的值都按需从源码的范围中解码。标识符在进入缓冲区时就驻留到 interner 里，
+ * 记录的是它的编号。注释不会进入缓冲区
+ */
+public class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Tokenizer tokenizer;
+    // 增量编辑以后会换成新的源码
+    private StringIter source;
+    private final Interner interner;
+
+    byte[] types = new byte[1024];
+    int[] starts = new int[1024];
+    int[] ends = new int[1024];
+    // 标识符的编号，其余 token 为 -1
+    int[] idents = new int[1024];
+    int count = 0;
+
+    // 侧表：valueTokens 是有值的 token 的下标（递增），values 是对应的值
+    int[] valueTokens = new int[64];
+    Object[] values = new Object[64];
+    int valueCount = 0;
+
+    // 已经读到 EOF
+    boolean done = false;
+
+    /**
+     * 从 tokenizer 中按需读取 token，也可以调用 fillAll() 一次读完
+     */
+    public TokenBuffer(Tokenizer tokenizer) {
+        this(tokenizer, new Interner());
+    }
+
+    /**
+     * 标识符驻留到给定的 interner 里，多个文件可以共用同一套编号
+     */
+    public TokenBuffer(Tokenizer tokenizer, Interner interner) {
+        this.tokenizer = tokenizer;
+        this.source = tokenizer.getIter();
+        this.interner = interner;
+    }
+
+    /**
+     * 把整个文件解析进缓冲区
+     */
+    public void fillAll() throws TokenizeError {
+        while (!done) {
+            lexOne();
+        }
+    }
+
+    /**
+     * 由已经切好的 token 拼出来的缓冲区，见 Tokenizer.tokenizeParallel()
+     */
+    TokenBuffer(StringIter source) {
+        this(source, new Interner());
+    }
+
+    private TokenBuffer(StringIter source, Interner interner) {
+        this.tokenizer = null;
+        this.source = source;
+        this.interner = interner;
+    }
+
+    /**
+     * 一次编辑的影响范围：旧的 [from, oldEnd) 被换成了新的 [from, newEnd)，
+     * oldEnd 之后的 token 原样保留，下标整体移动 newEnd - oldEnd
+     */
+    public static final class Splice {
+        public final int from;
+        public final int oldEnd;
+        public final int newEnd;
+
+        Splice(int from, int oldEnd, int newEnd) {
+            this.from = from;
+            this.oldEnd = oldEnd;
+            this.newEnd = newEnd;
+        }
+    }
+
+    /**
+     * 增量编辑：把源码中 [offset, offset + removed) 替换成 inserted，只重新切受影响的 token
+     *
+     * 从编辑位置之前最后一个完整的 token 之后开始重新切，越过编辑的范围以后，
+     * 一旦某个新 token 的结束位置和某个旧 token 的结束位置对上，后面的 token 就一定和原来一样，
+     * 直接搬过来并平移偏移。词法分析器最多向后看一个字符，所以结束位置在 offset 之前的 token 都不受影响
+     *
+     * @return 被替换的 token 范围
+     * @throws TokenizeError 新源码有词法错误时抛出，此时缓冲区保持编辑前的状态
+     */
+    public Splice edit(int offset, int removed, String inserted) throws TokenizeError {
+        fillAll();
+        var edited = source.edit(offset, removed, inserted);
+        int delta = edited.length() - source.length();
+        int damageEnd = offset + removed + delta;
+
+        // 第一个结束位置不早于 offset 的 token，EOF 的结束位置是源码末尾，所以一定存在
+        int first = lowerBound(ends, 0, count, offset);
+        int boundary = first == 0 ? 0 : ends[first - 1];
+
+        var fresh = new TokenBuffer(edited, interner);
+        var lexer = new Tokenizer(edited.view(boundary));
+        int resume = count;
+        while (true) {
+            var tokenType = lexer.lexNext();
+            fresh.append(tokenType, lexer.tokenStart(), lexer.tokenEnd(), lexer.tokenValue());
+            if (tokenType == TokenType.EOF) {
+                break;
+            }
+            int end = lexer.tokenEnd();
+            if (tokenType != TokenType.COMMENT && end >= damageEnd) {
+                int old = lowerBound(ends, first, count, end - delta);
+                if (old < count && ends[old] == end - delta && types[old] != TokenType.EOF.ordinal()) {
+                    resume = old + 1;
+                    break;
+                }
+            }
+        }
+
+        splice(first, resume, fresh, delta);
+        source = edited;
+        return new Splice(first, resume, first + fresh.count);
+    }
+
+    /**
+     * 用 fresh 替换 [first, resume)，resume 之后的 token 偏移平移 delta
+     */
+    private void splice(int first, int resume, TokenBuffer fresh, int delta) {
+        int tail = count - resume;
+        int newCount = first + fresh.count + tail;
+        int capacity = Math.max(newCount, 1024);
+        types = spliceBytes(types, first, resume, fresh.types, fresh.count, capacity);
+        starts = spliceInts(starts, first, resume, fresh.starts, fresh.count, capacity);
+        ends = spliceInts(ends, first, resume, fresh.ends, fresh.count, capacity);
+        idents = spliceInts(idents, first, resume, fresh.idents, fresh.count, capacity);
+        for (int i = first + fresh.count; i < newCount; i++) {
+            starts[i] += delta;
+            ends[i] += delta;
+        }
+
+        // 侧表按 token 下标排好序，三段分别平移下标
+        int keep = lowerBound(valueTokens, 0, valueCount, first);
+        int reuse = lowerBound(valueTokens, 0, valueCount, resume);
+        int newValueCount = keep + fresh.valueCount + (valueCount - reuse);
+        int[] newTokens = Arrays.copyOf(valueTokens, Math.max(newValueCount, 64));
+        Object[] newValues = Arrays.copyOf(values, Math.max(newValueCount, 64));
+        for (int i = 0; i < fresh.valueCount; i++) {
+            newTokens[keep + i] = fresh.valueTokens[i] + first;
+            newValues[keep + i] = fresh.values[i];
+        }
+        int shift = first + fresh.count - resume;
+        for (int i = reuse; i < valueCount; i++) {
+            newTokens[i - reuse + keep + fresh.valueCount] = valueTokens[i] + shift;
+            newValues[i - reuse + keep + fresh.valueCount] = values[i];
+        }
+        Arrays.fill(newValues, newValueCount, newValues.length, null);
+        valueTokens = newTokens;
+        values = newValues;
+        valueCount = newValueCount;
+        count = newCount;
+    }
+
+    private byte[] spliceBytes(byte[] old, int first, int resume, byte[] mid, int midCount, int capacity) {
+        var result = new byte[capacity];
+        System.arraycopy(old, 0, result, 0, first);
+        System.arraycopy(mid, 0, result, first, midCount);
+        System.arraycopy(old, resume, result, first + midCount, count - resume);
+        return result;
+    }
+
+    private int[] spliceInts(int[] old, int first, int resume, int[] mid, int midCount, int capacity) {
+        var result = new int[capacity];
+        System.arraycopy(old, 0, result, 0, first);
+        System.arraycopy(mid, 0, result, first, midCount);
+        System.arraycopy(old, resume, result, first + midCount, count - resume);
+        return result;
+    }
+
+    /**
+     * @return [from, to) 中第一个不小于 key 的下标，都小于 key 时返回 to
+     */
+    private static int lowerBound(int[] array, int from, int to, int key) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (array[mid] < key) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    private void lexOne() throws TokenizeError {
+        var tokenType = tokenizer.lexNext();
+        Object value = tokenizer.tokenValue();
+        if (value == null && source.isStreaming() && tokenType != TokenType.COMMENT && tokenType != TokenType.IDENT) {
+            // 流式模式下窗口会向前滑动，只能现在就解码。标识符的名字已经在 interner 里了
+            value = new Token(tokenType, tokenizer.tokenStart(), tokenizer.tokenEnd(), source).getValue();
+        }
+        append(tokenType, tokenizer.tokenStart(), tokenizer.tokenEnd(), value);
+    }
+
+    /**
+     * 在末尾追加一个 token，注释会被直接丢掉
+     */
+    void append(TokenType tokenType, int start, int end, Object value) {
+        if (tokenType == TokenType.COMMENT) {
+            return;
+        }
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            idents = Arrays.copyOf(idents, capacity);
+        }
+        types[count] = (byte) tokenType.ordinal();
+        starts[count] = start;
+        ends[count] = end;
+        if (tokenType == TokenType.IDENT) {
+            // 源码还在窗口里，直接按范围查表
+            idents[count] = interner.intern(source, start, end);
+        } else {
+            idents[count] = -1;
+        }
+        if (value != null && hasLiteralValue(tokenType)) {
+            addValue(count, value);
+        }
+
+        count++;
+        if (tokenType == TokenType.EOF) {
+            done = true;
+        }
+    }
+
+    /**
+     * 只有字面量的值需要进侧表，关键字和符号的值由类型决定，标识符的值在 interner 里
+     */
+    private static boolean hasLiteralValue(TokenType tokenType) {
+        switch (tokenType) {
+            case UINT_LITERAL:
+            case DOUBLE_LITERAL:
+            case STRING_LITERAL:
+            case CHAR_LITERAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void addValue(int index, Object value) {
+        if (valueCount == valueTokens.length) {
+            valueTokens = Arrays.copyOf(valueTokens, valueCount * 2);
+            values = Arrays.copyOf(values, valueCount * 2);
+        }
+        valueTokens[valueCount] = index;
+        values[valueCount] = value;
+        valueCount++;
+    }
+
+    /**
+     * 保证下标 index 的 token 已经读入。EOF 之后的下标都当作 EOF。
+     * 读入时数组可能扩容，所以调用方要先调用它，再取数组
+     */
+    private int ensure(int index) throws TokenizeError {
+        while (count <= index && !done) {
+            lexOne();
+        }
+        return Math.min(index, count - 1);
+    }
+
+    /**
+     * @return 已经读入的 token 数量
+     */
+    public int size() {
+        return count;
+    }
+
+    public TokenType typeAt(int index) throws TokenizeError {
+        int i = ensure(index);
+        return TYPES[types[i]];
+    }
+
+    public int startAt(int index) throws TokenizeError {
+        int i = ensure(index);
+        return starts[i];
+    }
+
+    public int endAt(int index) throws TokenizeError {
+        int i = ensure(index);
+        return ends[i];
+    }
+
+    public Object valueAt(int index) throws TokenizeError {
+        int i = ensure(index);
+        var tokenType = TYPES[types[i]];
+        if (tokenType.fixedValue() != null) {
+            return tokenType.fixedValue();
+        }
+        if (tokenType == TokenType.EOF) {
+            return "";
+        }
+        if (tokenType == TokenType.IDENT) {
+            return interner.name(idents[i]);
+        }
+        int slot = Arrays.binarySearch(valueTokens, 0, valueCount, i);
+        if (slot >= 0) {
+            return values[slot];
+        }
+        return new Token(tokenType, starts[i], ends[i], source).getValue();
+    }
+
+    public String valueStringAt(int index) throws TokenizeError {
+        var value = valueAt(index);
+        if (value instanceof Integer || value instanceof String || value instanceof Character) {
+            return value.toString();
+        }
+        throw new Error("No suitable cast for token value.");
+    }
+
+    /**
+     * @return 标识符的编号，不是标识符时返回 -1
+     */
+    public int identAt(int index) throws TokenizeError {
+        int i = ensure(index);
+        return idents[i];
+    }
+
+    /**
+     * @return 当前的源码，增量编辑以后是编辑后的源码
+     */
+    public StringIter getSource() {
+        return source;
+    }
+
+    public Interner getInterner() {
+        return interner;
+    }
+
+    public Pos startPosAt(int index) throws TokenizeError {
+        int i = ensure(index);
+        return source.posAt(starts[i]);
+    }
+
+    /**
+     * 把下标 index 的 token 取出来构造成 Token 对象，主要给报错和调试用
+     */
+    public Token tokenAt(int index) throws TokenizeError {
+        int i = ensure(index);
+        return new Token(TYPES[types[i]], valueAt(i), starts[i], ends[i], source);
+    }
+}
@@ -3,16 +3,16 @@ package miniplc0java.tokenizer;
 public enum TokenType {
     /** 空 */
     None,
-    FN_KW,
-    LET_KW,
-    CONST_KW,
-    AS_KW,
-    WHILE_KW,
-    IF_KW,
-    ELSE_KW,
-    RETURN_KW,
-    BREAK_KW,
-    CONTINUE_KW,
+    FN_KW("fn"),
+    LET_KW("let"),
+    CONST_KW("const"),
+    AS_KW("as"),
+    WHILE_KW("while"),
+    IF_KW("if"),
+    ELSE_KW("else"),
+    RETURN_KW("return"),
+    BREAK_KW("break"),
+    CONTINUE_KW("continue"),
     digit,
     UINT_LITERAL,
     DOUBLE_LITERAL,
@@ -22,25 +22,25 @@ public enum TokenType {
     char_regular_char,
     CHAR_LITERAL,
     IDENT,
-    PLUS,
-    MINUS,
-    MUL,
-    DIV,
-    ASSIGN,
-    EQ,
-    NEQ,
-    LT,
-    GT,
-    LE,
-    GE,
-    L_PAREN,
-    R_PAREN,
-    L_BRACE,
-    R_BRACE,
-    ARROW,
-    COMMA,
-    COLON,
-    SEMICOLON,
+    PLUS('+'),
+    MINUS('-'),
+    MUL('*'),
+    DIV('/'),
+    ASSIGN('='),
+    EQ('=', '='),
+    NEQ('!', '='),
+    LT('<'),
+    GT('>'),
+    LE('<', '='),
+    GE('>', '='),
+    L_PAREN('('),
+    R_PAREN(')'),
+    L_BRACE('{'),
+    R_BRACE('}'),
+    ARROW('-', '>'),
+    COMMA(','),
+    COLON(':'),
+    SEMICOLON(';'),
     COMMENT,
 
     /**无符号整数*/
@@ -91,6 +91,43 @@ public enum TokenType {
     /**文件尾*/
     EOF;
 
+    /** 关键字的拼写，不是关键字则为 null */
+    private final String keyword;
+    /** 关键字和符号的值是固定的，所有这种 token 共用这一个对象，其它类型为 null */
+    private final Object fixedValue;
+
+    TokenType() {
+        this(null, null);
+    }
+
+    TokenType(String keyword) {
+        this(keyword, keyword);
+    }
+
+    TokenType(char symbol) {
+        this(null, symbol);
+    }
+
+    TokenType(char first, char second) {
+        this(null, new String(new char[] { first, second }));
+    }
+
+    TokenType(String keyword, Object fixedValue) {
+        this.keyword = keyword;
+        this.fixedValue = fixedValue;
+    }
+
+    public String keyword() {
+        return keyword;
+    }
+
+    /**
+     * @return 关键字和符号的值（单字符符号是 Character，其余是 String），值不固定的类型返回 null
+     */
+    public Object fixedValue() {
+        return fixedValue;
+    }
+
 
     @Override
     public String toString() {
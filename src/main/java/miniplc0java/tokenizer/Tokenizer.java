@@ -3,10 +3,45 @@ package miniplc0java.tokenizer;
 import miniplc0java.error.TokenizeError;
 import miniplc0java.error.ErrorCode;
 
+import java.util.concurrent.ForkJoinPool;
+
 public class Tokenizer {
+    // 并行模式下每一块的默认大小
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    // 字符类别，下标是 ASCII 字符或者 UTF-8 字节
+    private static final byte OTHER = 0;
+    private static final byte SPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte LETTER = 3;
+    // 128 以上的都要解码出完整的字符再判断，不在热路径上
+    private static final byte NON_ASCII = 4;
+
+    private static final byte[] CHAR_CLASS = new byte[256];
+
+    static {
+        for (int ch = 0; ch < 256; ch++) {
+            if (ch >= 0x80) {
+                CHAR_CLASS[ch] = NON_ASCII;
+            } else if (Character.isWhitespace(ch)) {
+                CHAR_CLASS[ch] = SPACE;
+            } else if (ch >= '0' && ch <= '9') {
+                CHAR_CLASS[ch] = DIGIT;
+            } else if (Character.isAlphabetic(ch) || ch == '_') {
+                CHAR_CLASS[ch] = LETTER;
+            }
+        }
+    }
 
     private StringIter it;
 
+    // 当前 token 第一个字符的偏移
+    private int tokenStart;
+    // 当前 token 最后一个字符之后的偏移
+    private int tokenEnd;
+    // 当前 token 在词法分析时就确定的值，为 null 表示需要从源码中解码
+    private Object tokenValue;
+
     public Tokenizer(StringIter it) {
         this.it = it;
     }
@@ -19,437 +54,339 @@ public class Tokenizer {
      * @throws TokenizeError 如果解析有异常则抛出
      */
     public Token nextToken() throws TokenizeError {
+        var tokenType = lexNext();
+        if (tokenValue != null) {
+            return new Token(tokenType, tokenValue, tokenStart, tokenEnd, it);
+        }
+        var token = new Token(tokenType, tokenStart, tokenEnd, it);
+        // 流式模式下窗口会向前滑动，所以除了注释以外都在这里就把值取出来
+        if (it.isStreaming() && tokenType != TokenType.COMMENT) {
+            token.getValue();
+        }
+        return token;
+    }
+
+    /**
+     * 解析下一个 token 但不构造 Token 对象，
+     * 结果通过 tokenStart()、tokenEnd() 和 tokenValue() 取得
+     *
+     * @return token 的类型
+     * @throws TokenizeError 如果解析有异常则抛出
+     */
+    public TokenType lexNext() throws TokenizeError {
         it.readAll();
 
+        // 上一个 token 的值已经取走了，跳过空白时不用再留着它
+        it.unpin();
         // 跳过之前的所有空白字符
         skipSpaceCharacters();
 
+        tokenStart = it.currentOffset();
+        // 流式模式下 token 的值在 lexNext() 返回以后才解码，开头要一直留在窗口里
+        it.pin(tokenStart);
         if (it.isEOF()) {
-            return new Token(TokenType.EOF, "", it.currentPos(), it.currentPos());
+            return emit(TokenType.EOF, "");
         }
 
-        char peek = it.peekChar();
-        if (Character.isDigit(peek)) {
-            return lexUIntOrDouble();
-        } else if (Character.isAlphabetic(peek)||peek=='_') {
-            return lexIdentOrKeyword();
-        } else {
-            return lexOperatorOrUnknown();
+        switch (charClass(it.peekChar())) {
+            case DIGIT:
+                return lexUIntOrDouble();
+            case LETTER:
+                return lexIdentOrKeyword();
+            case NON_ASCII:
+                if (Character.isAlphabetic(it.peekCodePoint())) {
+                    // 非 ASCII 的字母，交给 lexIdentOrKeyword() 报错
+                    return lexIdentOrKeyword();
+                }
+                return lexOperatorOrUnknown();
+            default:
+                return lexOperatorOrUnknown();
         }
     }
 
+    private static int charClass(char ch) {
+        return ch < 256 ? CHAR_CLASS[ch] : NON_ASCII;
+    }
 
-    private Token lexUIntOrDouble() throws TokenizeError {
-        // 直到查看下一个字符不是数字为止:
-        String a=new String();
-
-        while(it.peekChar()<='9'&&it.peekChar()>='0')
-        {
-            a+=it.nextChar();
+    /**
+     * 并行模式：把整个源码按行切块，在 pool 上同时切 token 再按顺序拼起来，
+     * 结果和顺序调用 nextToken() 得到的 token 序列（去掉注释）完全一致。
+     * 流式模式下源码不在内存里，退化为顺序切分
+     *
+     * @param chunkSize 每一块大约多少个字符
+     * @throws TokenizeError 顺序切分时会遇到的第一个错误
+     */
+    public TokenBuffer tokenizeParallel(ForkJoinPool pool, int chunkSize) throws TokenizeError {
+        if (it.isStreaming()) {
+            var buffer = new TokenBuffer(this);
+            buffer.fillAll();
+            return buffer;
         }
-        if(it.peekChar()=='.')
-        {
-            a+=it.nextChar();
-            if(Character.isDigit(it.peekChar()))
-            {
-                while(Character.isDigit(it.peekChar()))
-                {
-                    a+=it.nextChar();
-                }
-                if(it.peekChar()=='e'||it.peekChar()=='E')
-                {
-                    it.nextChar();
-                    char zh=it.peekChar();
-                    String tmp=new String();
-
-                    if(Character.isDigit(zh))
-                    {
-                        while (Character.isDigit(it.peekChar()))
-                        {
-                            tmp+=it.nextChar();
-                        }
-                        double tmpx=Integer.parseInt(tmp);
-                        double xx=Double.parseDouble(a);
-                        double res=xx*Math.pow(10,tmpx);
-                        return new Token(TokenType.DOUBLE_LITERAL,res, it.previousPos(), it.currentPos());
-                    }
-                    else if(zh=='-')
-                    {
-                        it.nextChar();
-                        if(!Character.isDigit(it.peekChar()))
-                            throw new Error("Not a number");
-                        while (Character.isDigit(it.peekChar()))
-                        {
-                            tmp+=it.nextChar();
-                        }
+        return new ParallelTokenizer(it).tokenize(pool, chunkSize);
+    }
 
-                        double tmpx=Integer.parseInt(tmp);
-                        double xx=Double.parseDouble(a);
-                        double res=xx*Math.pow(10,-tmpx);
-                        return new Token(TokenType.DOUBLE_LITERAL,res, it.previousPos(), it.currentPos());
+    public TokenBuffer tokenizeParallel() throws TokenizeError {
+        return tokenizeParallel(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
 
-                    }
-                    else if(zh=='+')
-                    {
-                        it.nextChar();
-                        if(!Character.isDigit(it.peekChar()))
-                            throw new Error("Not a number");
-                        while (Character.isDigit(it.peekChar()))
-                        {
-                            tmp+=it.nextChar();
-                        }
+    /**
+     * @return 上一次 lexNext() 得到的 token 第一个字符的偏移
+     */
+    public int tokenStart() {
+        return tokenStart;
+    }
 
-                        double tmpx=Integer.parseInt(tmp);
-                        double xx=Double.parseDouble(a);
-                        double res=xx*Math.pow(10,tmpx);
-                        return new Token(TokenType.DOUBLE_LITERAL,res, it.previousPos(), it.currentPos());
-                    }
-                    else
-                        throw new Error("Not a number");
+    /**
+     * @return 上一次 lexNext() 得到的 token 最后一个字符之后的偏移
+     */
+    public int tokenEnd() {
+        return tokenEnd;
+    }
 
-                }
-                else
-                {
-                    double xx=Double.parseDouble(a);
-                    return new Token(TokenType.DOUBLE_LITERAL,xx, it.previousPos(), it.currentPos());
-                }
-            }
-            else
-                throw new Error("Not a number");
+    /**
+     * @return 上一次 lexNext() 得到的 token 在词法分析时就确定的值，需要从源码解码的 token 返回 null
+     */
+    public Object tokenValue() {
+        return tokenValue;
+    }
+
+    public StringIter getIter() {
+        return it;
+    }
+
+    /**
+     * 记录当前 token 的结束位置和值
+     */
+    private TokenType emit(TokenType tokenType, Object value) {
+        tokenEnd = it.currentOffset();
+        tokenValue = value;
+        return tokenType;
+    }
+
+    /**
+     * 关键字和符号的值由类型决定，用的都是 TokenType 里的同一个对象
+     */
+    private TokenType emitFixed(TokenType tokenType) {
+        return emit(tokenType, tokenType.fixedValue());
+    }
+
+    /**
+     * 只记录范围的 token，值等到 getValue() 时才从源码里解码
+     */
+    private TokenType emitLazy(TokenType tokenType) {
+        return emit(tokenType, null);
+    }
+
+    /**
+     * 在偏移 offset 处出错，行列号等到报告错误时才换算
+     */
+    private TokenizeError error(ErrorCode code, int offset) {
+        return new TokenizeError(code, it, offset);
+    }
+
+    /**
+     * 转义序列 \\x 中 x 代表的字符
+     *
+     * @return 对应的字符，不是合法的转义则返回 -1
+     */
+    static int escapedChar(char x) {
+        switch (x) {
+            case '\\':
+                return '\\';
+            case '\'':
+                return '\'';
+            case '"':
+                return '"';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                return -1;
         }
-        long x=Long.valueOf(a);
-        return new Token(TokenType.UINT_LITERAL,x, it.previousPos(), it.currentPos());
-        // 解析成功则返回无符号整数类型的token，否则返回编译错误
-        // Token 的 Value 应填写数字的值
-//        throw new Error("Not implemented");
     }
 
-    private Token lexIdentOrKeyword() throws TokenizeError {
-        // 请填空：
-        // 直到查看下一个字符不是数字或字母为止:
-        String a=new String();
-        while((it.peekChar()<='9'&&it.peekChar()>='0')||(it.peekChar()<='z'&&it.peekChar()>='a')||(it.peekChar()<='Z'&&it.peekChar()>='A')||it.peekChar()=='_')
-        {
-            a+=it.nextChar();
+    // 无符号 long 能精确容纳的十进制有效数字位数
+    private static final int MAX_MANTISSA_DIGITS = 19;
+
+    private TokenType lexUIntOrDouble() throws TokenizeError {
+        // 数字直接累加到 long 里，不拼字符串
+        // mantissa 是去掉小数点以后的有效数字，digits 是其中的有效位数（不含前导零）
+        long mantissa = 0;
+        int digits = 0;
+        boolean truncated = false;
+        boolean overflow = false;
+
+        while (isDigit(it.peekChar())) {
+            int d = it.nextChar() - '0';
+            if (!overflow) {
+                // 整数字面量要放进 long
+                if (mantissa > (Long.MAX_VALUE - d) / 10) {
+                    overflow = true;
+                } else {
+                    mantissa = mantissa * 10 + d;
+                }
+            }
+            if (digits > 0 || d != 0) {
+                digits++;
+            }
         }
-        // -- 前进一个字符，并存储这个字符
-        // 尝试将存储的字符串解释为关键字
-        if(a.equals("fn"))
-        {
-            return new Token(TokenType.FN_KW,a, it.previousPos(), it.currentPos());
+        if (it.peekChar() != '.') {
+            if (overflow) {
+                throw error(ErrorCode.IntegerOverflow, tokenStart);
+            }
+            return emit(TokenType.UINT_LITERAL, mantissa);
         }
-        if(a.equals("let"))
-        {
-            return new Token(TokenType.LET_KW,a, it.previousPos(), it.currentPos());
+        it.nextChar();
+        if (!isDigit(it.peekChar())) {
+            throw error(ErrorCode.InvalidInput, it.currentOffset());
         }
-        if(a.equals("const"))
-        {
-            return new Token(TokenType.CONST_KW,a, it.previousPos(), it.currentPos());
+        if (digits > MAX_MANTISSA_DIGITS) {
+            truncated = true;
         }
-        if(a.equals("as"))
-        {
-            return new Token(TokenType.AS_KW,a, it.previousPos(), it.currentPos());
+
+        // 小数部分，每多一位小数，十进制指数就减一
+        int exponent = 0;
+        while (isDigit(it.peekChar())) {
+            int d = it.nextChar() - '0';
+            if (digits > 0 || d != 0) {
+                digits++;
+            }
+            if (digits > MAX_MANTISSA_DIGITS) {
+                truncated = true;
+            } else {
+                mantissa = mantissa * 10 + d;
+                exponent--;
+            }
         }
-        if(a.equals("while"))
-        {
-            return new Token(TokenType.WHILE_KW,a, it.previousPos(), it.currentPos());
+
+        if (it.peekChar() == 'e' || it.peekChar() == 'E') {
+            it.nextChar();
+            boolean negative = false;
+            if (it.peekChar() == '+' || it.peekChar() == '-') {
+                negative = it.nextChar() == '-';
+            }
+            if (!isDigit(it.peekChar())) {
+                throw error(ErrorCode.InvalidInput, it.currentOffset());
+            }
+            int exp = 0;
+            while (isDigit(it.peekChar())) {
+                int d = it.nextChar() - '0';
+                // 再大的指数结果也是 0 或者无穷，饱和就行
+                if (exp < 100000) {
+                    exp = exp * 10 + d;
+                }
+            }
+            exponent += negative ? -exp : exp;
         }
-        if(a.equals("if"))
-        {
-            return new Token(TokenType.IF_KW,a, it.previousPos(), it.currentPos());
+
+        double value = Double.NaN;
+        if (!truncated && !overflow) {
+            value = DoubleParser.toDouble(mantissa, exponent);
         }
-        if(a.equals("else"))
-        {
-            return new Token(TokenType.ELSE_KW,a, it.previousPos(), it.currentPos());
+        if (Double.isNaN(value)) {
+            // 快速路径不能保证正确舍入，退回到标准库
+            value = Double.parseDouble(it.substring(tokenStart, it.currentOffset()));
         }
-        if(a.equals("return"))
-        {
-            return new Token(TokenType.RETURN_KW,a, it.previousPos(), it.currentPos());
+        return emit(TokenType.DOUBLE_LITERAL, value);
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private TokenType lexIdentOrKeyword() throws TokenizeError {
+        // 直到查看下一个字符不是数字、字母或下划线为止，只移动指针不拼字符串
+        while (isIdentChar(it.peekChar())) {
+            it.nextChar();
         }
-        if(a.equals("break"))
-        {
-            return new Token(TokenType.BREAK_KW,a, it.previousPos(), it.currentPos());
+        int end = it.currentOffset();
+        if (end == tokenStart) {
+            // 非 ASCII 的字母不能出现在标识符里
+            throw error(ErrorCode.InvalidIdentifier, it.currentOffset());
         }
-        if(a.equals("continue"))
-        {
-            return new Token(TokenType.CONTINUE_KW,a, it.previousPos(), it.currentPos());
+        // 查关键字表，关键字的值直接用表里的拼写，只有标识符才取出字符串
+        TokenType tt = KeywordTable.lookup(it, tokenStart, end);
+        if (tt != TokenType.IDENT) {
+            return emitFixed(tt);
         }
-
-        return new Token(TokenType.IDENT,a,it.previousPos(), it.currentPos());
-        // -- 如果是关键字，则返回关键字类型的 token
-        // -- 否则，返回标识符
-        // Token 的 Value 应填写标识符或关键字的字符串
-//        throw new Error("Not implemented");
+        return emitLazy(TokenType.IDENT);
     }
 
-    private Token lexOperatorOrUnknown() throws TokenizeError {
+    private static boolean isIdentChar(char ch) {
+        int cls = charClass(ch);
+        return cls == DIGIT || cls == LETTER;
+    }
 
-        switch (it.nextChar()) {
-            case '"'://字符串字面量
+    private TokenType lexOperatorOrUnknown() throws TokenizeError {
+        // 运算符和标点查转移表，字符串、字符字面量和注释只匹配开头
+        TokenType tt = OperatorTable.match(it);
+        if (tt == null) {
+            // 不认识这个输入，摸了
+            throw error(ErrorCode.InvalidInput, tokenStart);
+        }
+        switch (tt) {
+            case STRING_LITERAL://字符串字面量
                 {
-                    int end=1;
-                    char m,prem;
-
-                    String ans=new String();
-
-                    m=it.nextChar();
-//                    ans+=m;
-
-                    if(m=='"')
-                        return new Token(TokenType.STRING_LITERAL, "", it.previousPos(), it.currentPos());
-
-                    while(end==1)
-                    {
-                        if(m=='\\')
-                        {
-                            char temp=it.nextChar();
-                            if(temp=='\\'||temp=='\''||temp=='"'||temp=='n'||temp=='t'||temp=='r')
-                            {
-                                if(temp=='\\')
-                                {
-                                    ans+='\\';
-                                }
-                                if(temp=='\'')
-                                {
-                                    ans+='\'';
-                                }
-                                if(temp=='"')
-                                {
-                                    ans+='"';
-                                }
-                                if(temp=='n')
-                                {
-                                    char g=10;
-                                    ans+=g;
-                                }
-                                if(temp=='r')
-                                {
-                                    char g=13;
-                                    ans+=g;
-                                }
-                                if(temp=='t')
-                                {
-                                    char g=9;
-                                    ans+=g;
-                                }
-                            }
-                            else
-                            {
-                                ans+=m;
-                                ans+=temp;
-                            }
-                            m=it.nextChar();
-
-                            if(m=='"')
-                                break;
-
-                            continue;
+                    // 只找到结尾的引号，转义等到真正取值的时候再解码
+                    while (true) {
+                        if (it.isEOF()) {
+                            throw error(ErrorCode.InvalidInput, it.currentOffset());
                         }
-
-                        if(m=='"')
+                        char m = it.nextChar();
+                        if (m == '"') {
                             break;
-                        ans+=m;
-                        m=it.nextChar();
+                        }
+                        if (m == '\\') {
+                            it.nextChar();
+                        }
                     }
-
-                    return new Token(TokenType.STRING_LITERAL, ans, it.previousPos(), it.currentPos());
-//                    while(end==1)
-//                    {
-//                        prem=m;
-//                        m=it.nextChar();
-//                        if(m=='"')
-//                        {
-//                            if(prem!='\\')
-//                                break;
-//                        }
-//                        ans+=m;
-//                    }
-//
-//                    char teem[]=ans.toCharArray();
-//                    String fin=new String();
-//
-//                    for(int i=0;i< teem.length;)
-//                    {
-//                        if(teem[i]!='\\')
-//                        {
-//                            fin+=teem[i];
-//                            i++;
-//                        }
-//                        else{
-//                            int j=i+1;
-//                            if(j< teem.length&&teem[j]=='\'')
-//                            {
-//                                fin+='\'';
-//                                i=j+1;
-//                                continue;
-//                            }
-//                            if(j< teem.length&&teem[j]=='"')
-//                            {
-//                                fin+='"';
-//                                i=j+1;
-//                                continue;
-//                            }
-//                            if(j< teem.length&&teem[j]=='\\')
-//                            {
-//                                fin+='\\';
-//                                i=j+1;
-//                                continue;
-//                            }
-//                            if(j< teem.length&&teem[j]=='n')
-//                            {
-//                                char g=10;
-//                                fin+=g;
-//                                i=j+1;
-//                                continue;
-//                            }
-//                            if(j< teem.length&&teem[j]=='r')
-//                            {
-//                                char g=13;
-//                                fin+=g;
-//                                i=j+1;
-//                                continue;
-//                            }
-//                            if(j< teem.length&&teem[j]=='t')
-//                            {
-//                                char g=9;
-//                                fin+=g;
-//                                i=j+1;
-//                                continue;
-//                            }
-//                        }
-//                    }
-
-//                    return new Token(TokenType.STRING_LITERAL, fin, it.previousPos(), it.currentPos());
-
+                    return emitLazy(TokenType.STRING_LITERAL);
                 }
 
-
-            case '\''://字符字面量：
+            case CHAR_LITERAL://字符字面量：
                 {
-                    char tmp= it.nextChar();
-                    if(tmp=='\\')
-                    {
-                        char tmp2=it.nextChar();
-                        char end=it.nextChar();
-                        if(end=='\'')
-                        {
-                            if(tmp2=='n')
-                                return new Token(TokenType.CHAR_LITERAL, 10, it.previousPos(), it.currentPos());
-                            if(tmp2=='t')
-                                return new Token(TokenType.CHAR_LITERAL, 9, it.previousPos(), it.currentPos());
-                            if(tmp2=='r')
-                                return new Token(TokenType.CHAR_LITERAL, 13, it.previousPos(), it.currentPos());
-                            if(tmp2=='\'')
-                                return new Token(TokenType.CHAR_LITERAL, 39, it.previousPos(), it.currentPos());
+                    char tmp = it.peekChar();
+                    if (Character.isSurrogate(tmp) || it.peekCodePoint() > 0xffff) {
+                        // 字符字面量的值是一个 char，放不下补充平面的字符，两种输入模式都不接受
+                        throw error(ErrorCode.InvalidInput, it.currentOffset());
+                    }
+                    it.skipCodePoint();
+                    if (tmp == '\\') {
+                        if (escapedChar(it.nextChar()) < 0) {
+                            throw error(ErrorCode.InvalidInput, it.currentOffset() - 1);
                         }
-                        else
-                            throw new Error("not a char");
-
+                    } else if (tmp == '\'' || tmp == '\n' || tmp == '\t' || tmp == '\r' || tmp == 0) {
+                        throw error(ErrorCode.InvalidInput, it.currentOffset() - 1);
                     }
-                    if(tmp!='\'')
-                    {
-                        char tmp2=it.nextChar();
-                        if(tmp2!='\''||tmp=='\\'||tmp=='\n'||tmp=='\t'||tmp=='\r')
-                            throw new Error("not a char");
-
-                        return new Token(TokenType.CHAR_LITERAL, tmp, it.previousPos(), it.currentPos());
+                    if (it.nextChar() != '\'') {
+                        throw error(ErrorCode.InvalidInput, it.currentOffset());
                     }
-                    else
-                        throw new Error("not a char");
+                    return emitLazy(TokenType.CHAR_LITERAL);
                 }
 
-            case '+':
-                return new Token(TokenType.PLUS, '+', it.previousPos(), it.currentPos());
-
-            case '-':
-                if(it.peekChar()=='>')
-                {
+            case COMMENT:
+                // 注释只记录范围，换行留给下一次跳过空白。流式模式下不解码注释，不用留在窗口里
+                it.unpin();
+                while (!it.isEOF() && it.peekChar() != 13 && it.peekChar() != 10)
                     it.nextChar();
-                    return new Token(TokenType.ARROW, "->", it.previousPos(), it.currentPos());
-                }
-                return new Token(TokenType.MINUS, '-', it.previousPos(), it.currentPos());
-
-
-            case '*':
-                return new Token(TokenType.MUL, '*', it.previousPos(), it.currentPos());
-
-
-            case '/':
-                if(it.peekChar()=='/')
-                {
-                    String com=new String();
-                    while(it.peekChar()!=13&&it.peekChar()!=10)
-                        com+=it.nextChar();
-                    it.nextChar();
-                    return new Token(TokenType.COMMENT, com, it.previousPos(), it.currentPos());
-                }
-                return new Token(TokenType.DIV, '/', it.previousPos(), it.currentPos());
-
-            case '=':
-                if(it.peekChar()=='=')
-                    {
-                        it.nextChar();
-                        return new Token(TokenType.EQ, "==", it.previousPos(), it.currentPos());
-                    }
-                return new Token(TokenType.ASSIGN, '=', it.previousPos(), it.currentPos());
-
-            case '!':
-                if(it.peekChar()=='=')
-                {
-                    it.nextChar();
-                    return new Token(TokenType.NEQ, "!=", it.previousPos(), it.currentPos());
-                }
-                else
-                    throw new Error("Not A Legal Sign");
-
-            case '<':
-                if(it.peekChar()=='=')
-                {
-                    it.nextChar();
-                    return new Token(TokenType.LE, "<=", it.previousPos(), it.currentPos());
-                }
-                return new Token(TokenType.LT, '<', it.previousPos(), it.currentPos());
-
-            case '>':
-                if(it.peekChar()=='=')
-                {
-                    it.nextChar();
-                    return new Token(TokenType.GE, ">=", it.previousPos(), it.currentPos());
-                }
-                return new Token(TokenType.GT, '>', it.previousPos(), it.currentPos());
-
-
-            case '(':
-                return new Token(TokenType.L_PAREN, '(', it.previousPos(), it.currentPos());
-
-            case ')':
-                return new Token(TokenType.R_PAREN, ')', it.previousPos(), it.currentPos());
-
-            case '{':
-                return new Token(TokenType.L_BRACE, '{', it.previousPos(), it.currentPos());
-
-            case '}':
-                return new Token(TokenType.R_BRACE, '}', it.previousPos(), it.currentPos());
-
-            case ':':
-                return new Token(TokenType.COLON, ':', it.previousPos(), it.currentPos());
-
-            case ';':
-                return new Token(TokenType.SEMICOLON, ';', it.previousPos(), it.currentPos());
-
-
-            case ',':
-                return new Token(TokenType.COMMA, ',', it.previousPos(), it.currentPos());
+                return emitLazy(TokenType.COMMENT);
 
             default:
-                // 不认识这个输入，摸了
-                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+                return emitFixed(tt);
         }
     }
 
     private void skipSpaceCharacters() {
-        while (!it.isEOF() && Character.isWhitespace(it.peekChar())) {
-            it.nextChar();
+        while (!it.isEOF()) {
+            int cls = charClass(it.peekChar());
+            if (cls == SPACE || (cls == NON_ASCII && Character.isWhitespace(it.peekCodePoint()))) {
+                it.skipCodePoint();
+            } else {
+                break;
+            }
         }
     }
 }
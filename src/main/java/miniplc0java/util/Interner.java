@@ -0,0 +1,124 @@
+package miniplc0java.util;
+
+import java.util.Arrays;
+
+import miniplc0java.tokenizer.StringIter;
+
+/**
+ * 标识符驻留池，给每个不同的标识符分配一个从 0 开始的连续编号
+ *
+ * 词法分析时直接对源码中的一段字符求哈希并查表，只有第一次遇到的标识符才会被取出来变成字符串。
+ * 之后的各个阶段都用编号代替名字，符号表可以直接用数组下标查找
+ */
+public class Interner {
+    // 开放寻址的哈希表，存的是编号 + 1，0 表示空槽
+    private int[] table = new int[256];
+    private int[] hashes = new int[64];
+    private String[] names = new String[64];
+    private int size = 0;
+
+    /**
+     * 驻留源码中 [start, end) 这一段
+     *
+     * @return 这个标识符的编号
+     */
+    public int intern(StringIter source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = hash * 31 + source.charAt(i);
+        }
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id < 0) {
+                return add(source.substring(start, end), hash, slot);
+            }
+            if (hashes[id] == hash && names[id].length() == end - start && source.regionMatches(start, names[id])) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * 驻留一个已经是字符串的名字，比如内置函数
+     *
+     * @return 这个标识符的编号
+     */
+    public int intern(String name) {
+        int hash = name.hashCode();
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id < 0) {
+                return add(name, hash, slot);
+            }
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * 查找一个名字的编号，不存在时返回 -1
+     */
+    public int find(String name) {
+        int hash = name.hashCode();
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return 编号对应的名字
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return 已经分配的编号数量，所有编号都小于它
+     */
+    public int size() {
+        return size;
+    }
+
+    private int add(String name, int hash, int slot) {
+        int id = size++;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        names[id] = name;
+        hashes[id] = hash;
+        table[slot] = id + 1;
+        // 装载因子超过 1/2 就扩容
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
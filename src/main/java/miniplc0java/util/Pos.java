@@ -1,5 +1,7 @@
 package miniplc0java.util;
 
+import java.util.Objects;
+
 public class Pos {
     public Pos(int row, int col) {
         this.row = row;
@@ -17,6 +19,21 @@ public class Pos {
         return new Pos(row + 1, 0);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        Pos pos = (Pos) o;
+        return row == pos.row && col == pos.col;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(row, col);
+    }
+
     @Override
     public String toString() {
         return new StringBuilder().append("Pos(row: ").append(row).append(", col: ").append(col).append(")").toString();
@@ -1,103 +1,359 @@
 package miniplc0java.vm;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
-import java.util.ArrayList;
+import java.io.PushbackReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 
+import miniplc0java.instruction.FunctionDef;
 import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.instruction.Program;
 
+/**
+ * 栈式虚拟机
+ *
+ * 栈上每格是一个 long，int 直接存，double 存二进制位。指令在编译时已经按类型选好，
+ * 这里不检查值的类型。函数的帧从第一个实参开始，局部变量紧跟在参数后面，再往上是运算用的栈
+ */
 public class MiniVm {
-    private List<Instruction> instructions;
-    private PrintStream out;
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final Program program;
+    private final PrintStream out;
+    private final PushbackReader in;
+
+    // 每个函数预先解码成两个数组，不在循环里拆 Instruction 对象
+    private final int[][] ops;
+    private final long[][] args;
+
+    private long[] stack = new long[1024];
+    private int sp = 0;
+    private long[] globals;
+
+    // 调用栈，每层三格 {调用方的函数编号, 返回地址, 调用方的帧}
+    private int[] calls = new int[192];
+    private int callTop = 0;
+
+    private int ip;
 
     /**
      * @param instructions
      * @param out
      */
     public MiniVm(List<Instruction> instructions, PrintStream out) {
-        this.instructions = instructions;
-        this.out = out;
+        this(new Program(instructions), System.in, out);
     }
 
     public MiniVm(List<Instruction> instructions) {
-        this.instructions = instructions;
-        this.out = System.out;
+        this(new Program(instructions), System.in, System.out);
     }
 
-    private ArrayList<Integer> stack = new ArrayList<>();
-
-    private int ip;
+    public MiniVm(Program program, InputStream in, PrintStream out) {
+        this.program = program;
+        this.in = new PushbackReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        this.out = out;
+        var functions = program.getFunctions();
+        ops = new int[functions.size()][];
+        args = new long[functions.size()][];
+        for (int f = 0; f < functions.size(); f++) {
+            var body = functions.get(f).getBody();
+            ops[f] = new int[body.size()];
+            args[f] = new long[body.size()];
+            for (int i = 0; i < body.size(); i++) {
+                ops[f][i] = body.get(i).getOpt().ordinal();
+                args[f][i] = body.get(i).getX();
+            }
+        }
+    }
 
     public void Run() {
+        var functions = program.getFunctions();
+        globals = new long[program.getGlobals()];
+        int current = functions.size() - 1;
+        FunctionDef function = functions.get(current);
+        int[] code = ops[current];
+        long[] operands = args[current];
+        int fp = 0;
+        int base = 0;
+        sp = 0;
+        callTop = 0;
         ip = 0;
-        while (ip < instructions.size()) {
-            var inst = instructions.get(ip);
-            RunStep(inst);
-            ip++;
+        while (true) {
+            if (ip == code.length) {
+                // 顺序执行到函数末尾，相当于 RET，旧的 miniplc0 指令序列就是这样结束的
+                if (callTop == 0) {
+                    return;
+                }
+                current = calls[callTop - 3];
+                ip = calls[callTop - 2];
+                sp = fp;
+                fp = calls[callTop - 1];
+                callTop -= 3;
+                function = functions.get(current);
+                code = ops[current];
+                operands = args[current];
+                base = fp + function.getParams();
+                continue;
+            }
+            long x = operands[ip];
+            if (sp + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            switch (OPERATIONS[code[ip++]]) {
+                case ILL:
+                    throw new Error("Illegal instruction");
+                case LIT:
+                case LITD:
+                    stack[sp++] = x;
+                    break;
+                case LOD:
+                    stack[sp] = stack[(int) x];
+                    sp++;
+                    break;
+                case STO:
+                    stack[(int) x] = stack[--sp];
+                    break;
+                case ADD:
+                    sp--;
+                    stack[sp - 1] += stack[sp];
+                    break;
+                case SUB:
+                    sp--;
+                    stack[sp - 1] -= stack[sp];
+                    break;
+                case MUL:
+                    sp--;
+                    stack[sp - 1] *= stack[sp];
+                    break;
+                case DIV:
+                    sp--;
+                    stack[sp - 1] /= stack[sp];
+                    break;
+                case NEG:
+                    stack[sp - 1] = -stack[sp - 1];
+                    break;
+                case DADD:
+                    sp--;
+                    stack[sp - 1] = bits(real(stack[sp - 1]) + real(stack[sp]));
+                    break;
+                case DSUB:
+                    sp--;
+                    stack[sp - 1] = bits(real(stack[sp - 1]) - real(stack[sp]));
+                    break;
+                case DMUL:
+                    sp--;
+                    stack[sp - 1] = bits(real(stack[sp - 1]) * real(stack[sp]));
+                    break;
+                case DDIV:
+                    sp--;
+                    stack[sp - 1] = bits(real(stack[sp - 1]) / real(stack[sp]));
+                    break;
+                case DNEG:
+                    stack[sp - 1] = bits(-real(stack[sp - 1]));
+                    break;
+                case ITOD:
+                    stack[sp - 1] = bits((double) stack[sp - 1]);
+                    break;
+                case DTOI:
+                    stack[sp - 1] = (long) real(stack[sp - 1]);
+                    break;
+                case EQ:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] == stack[sp] ? 1 : 0;
+                    break;
+                case NE:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] != stack[sp] ? 1 : 0;
+                    break;
+                case LT:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] < stack[sp] ? 1 : 0;
+                    break;
+                case GT:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] > stack[sp] ? 1 : 0;
+                    break;
+                case LE:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] <= stack[sp] ? 1 : 0;
+                    break;
+                case GE:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] >= stack[sp] ? 1 : 0;
+                    break;
+                case DEQ:
+                    sp--;
+                    stack[sp - 1] = real(stack[sp - 1]) == real(stack[sp]) ? 1 : 0;
+                    break;
+                case DNE:
+                    sp--;
+                    stack[sp - 1] = real(stack[sp - 1]) != real(stack[sp]) ? 1 : 0;
+                    break;
+                case DLT:
+                    sp--;
+                    stack[sp - 1] = real(stack[sp - 1]) < real(stack[sp]) ? 1 : 0;
+                    break;
+                case DGT:
+                    sp--;
+                    stack[sp - 1] = real(stack[sp - 1]) > real(stack[sp]) ? 1 : 0;
+                    break;
+                case DLE:
+                    sp--;
+                    stack[sp - 1] = real(stack[sp - 1]) <= real(stack[sp]) ? 1 : 0;
+                    break;
+                case DGE:
+                    sp--;
+                    stack[sp - 1] = real(stack[sp - 1]) >= real(stack[sp]) ? 1 : 0;
+                    break;
+                case LOADA:
+                    stack[sp++] = stack[fp + (int) x];
+                    break;
+                case STOREA:
+                    stack[fp + (int) x] = stack[--sp];
+                    break;
+                case LOADL:
+                    stack[sp++] = stack[base + (int) x];
+                    break;
+                case STOREL:
+                    stack[base + (int) x] = stack[--sp];
+                    break;
+                case LOADG:
+                    stack[sp++] = globals[(int) x];
+                    break;
+                case STOREG:
+                    globals[(int) x] = stack[--sp];
+                    break;
+                case POP:
+                    sp--;
+                    break;
+                case DUP:
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                    break;
+                case JMP:
+                    ip = (int) x;
+                    break;
+                case JZ:
+                    if (stack[--sp] == 0) {
+                        ip = (int) x;
+                    }
+                    break;
+                case CALL: {
+                    var callee = functions.get((int) x);
+                    if (callTop + 3 > calls.length) {
+                        calls = Arrays.copyOf(calls, calls.length * 2);
+                    }
+                    calls[callTop++] = current;
+                    calls[callTop++] = ip;
+                    calls[callTop++] = fp;
+                    fp = sp - callee.getParams();
+                    base = sp;
+                    int locals = callee.getLocals();
+                    if (sp + locals + 2 > stack.length) {
+                        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + locals + 2));
+                    }
+                    Arrays.fill(stack, sp, sp + locals, 0);
+                    sp += locals;
+                    current = (int) x;
+                    function = callee;
+                    code = ops[current];
+                    operands = args[current];
+                    ip = 0;
+                    break;
+                }
+                case RET: {
+                    long value = function.returnsValue() ? stack[sp - 1] : 0;
+                    sp = fp;
+                    if (function.returnsValue()) {
+                        stack[sp++] = value;
+                    }
+                    if (callTop == 0) {
+                        return;
+                    }
+                    current = calls[callTop - 3];
+                    ip = calls[callTop - 2];
+                    fp = calls[callTop - 1];
+                    callTop -= 3;
+                    function = functions.get(current);
+                    code = ops[current];
+                    operands = args[current];
+                    base = fp + function.getParams();
+                    break;
+                }
+                case GETINT:
+                    stack[sp++] = Long.parseLong(readWord());
+                    break;
+                case GETDOUBLE:
+                    stack[sp++] = bits(Double.parseDouble(readWord()));
+                    break;
+                case GETCHAR:
+                    stack[sp++] = readChar();
+                    break;
+                case PUTINT:
+                    out.print(stack[--sp]);
+                    break;
+                case PUTDOUBLE:
+                    out.print(real(stack[--sp]));
+                    break;
+                case PUTCHAR:
+                    out.print((char) stack[--sp]);
+                    break;
+                case PUTSTR:
+                    out.print(program.getStrings().get((int) stack[--sp]));
+                    break;
+                case PUTLN:
+                    out.println();
+                    break;
+                case WRT:
+                    out.printf("%d\n", stack[--sp]);
+                    break;
+                default:
+                    break;
+            }
         }
     }
 
-    private Integer pop() {
-        var val = this.stack.get(this.stack.size() - 1);
-        this.stack.remove(this.stack.size() - 1);
-        return val;
+    private static double real(long bits) {
+        return Double.longBitsToDouble(bits);
     }
 
-    private void push(Integer i) {
-        this.stack.add(i);
+    private static long bits(double value) {
+        return Double.doubleToRawLongBits(value);
     }
 
-    private void RunStep(Instruction inst) {
-        switch (inst.getOpt()) {
-            case ADD: {
-                var a = pop();
-                var b = pop();
-                push(a + b);
-            }
-                break;
-            case DIV: {
-                var b = pop();
-                var a = pop();
-                push(a / b);
-            }
-                break;
-            case ILL: {
-                throw new Error("Illegal instruction");
-            }
-            case LIT: {
-                push(inst.getX());
-            }
-                break;
-            case LOD: {
-                var x = stack.get(inst.getX());
-                push(x);
-            }
-                break;
-            case MUL: {
-                var b = pop();
-                var a = pop();
-                push(a * b);
-            }
-                break;
-            case STO: {
-                var x = pop();
-                stack.set(inst.getX(), x);
-            }
-                break;
-            case SUB: {
-                var b = pop();
-                var a = pop();
-                push(a - b);
-            }
-                break;
-            case WRT: {
-                var b = pop();
-                out.printf("%d\n", b);
-            }
-                break;
-            default:
-                break;
+    private int readChar() {
+        try {
+            return in.read();
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+    }
 
+    /**
+     * 跳过空白读一个词，给 getint 和 getdouble 用
+     */
+    private String readWord() {
+        var sb = new StringBuilder();
+        int ch = readChar();
+        while (ch >= 0 && Character.isWhitespace(ch)) {
+            ch = readChar();
+        }
+        while (ch >= 0 && !Character.isWhitespace(ch)) {
+            sb.append((char) ch);
+            ch = readChar();
+        }
+        if (ch >= 0) {
+            try {
+                in.unread(ch);
+            } catch (IOException e) {
+                throw new Error(e);
+            }
         }
+        return sb.toString();
     }
 }
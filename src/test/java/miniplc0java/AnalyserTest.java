@@ -3,6 +3,219 @@ package miniplc0java;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import miniplc0java.analyser.Analyser;
+import miniplc0java.ast.NodeKind;
+import miniplc0java.error.AnalyzeError;
+import miniplc0java.error.CompileError;
+import miniplc0java.error.ErrorCode;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.TokenBuffer;
+import miniplc0java.tokenizer.TokenType;
+import miniplc0java.tokenizer.Tokenizer;
+
 public class AnalyserTest {
 
+    private static final String PROGRAM = "fn f(x: int) -> int { return x; }\n"
+            + "let g: int = 1;\n"
+            + "fn h(a: int, const b: double) -> void { while a < 1 { a = a + 1; } }\n"
+            + "fn k() -> void {}\n";
+
+    private Analyser analyse(String source) throws CompileError {
+        var analyser = new Analyser(new TokenBuffer(new Tokenizer(new StringIter(source))));
+        analyser.analyse();
+        return analyser;
+    }
+
+    @Test
+    public void testAstShape() throws CompileError {
+        var program = analyse("let y: int = 0;\n"
+                + "fn f(const a: int, b: double) -> int { if a { return 1; } else if b < 0.5 { y = 2; } "
+                + "else { while (a + 1) * 2 { ; break; continue; } } return -a; }\n"
+                + "let x: int = 1 + 2 * -3.5 as int - f(4, 5.0) < 6;\n").getProgram();
+        assertEquals(3, program.size());
+        assertEquals("(LET y (TYPE int) (LITERAL 0))", program.get(0).toString());
+        assertEquals("(FUNCTION f (PARAM const a (TYPE int)) (PARAM b (TYPE double)) (TYPE int) "
+                + "(BLOCK (IF (IDENT a) (BLOCK (RETURN (LITERAL 1))) (IF (BINARY < (IDENT b) (LITERAL 0.5)) "
+                + "(BLOCK (EXPR_STMT (ASSIGN (IDENT y) (LITERAL 2)))) "
+                + "(BLOCK (WHILE (BINARY * (BINARY + (IDENT a) (LITERAL 1)) (LITERAL 2)) "
+                + "(BLOCK (EMPTY) (BREAK) (CONTINUE)))))) (RETURN (NEGATE (IDENT a)))))",
+                program.get(1).toString());
+        assertEquals("(LET x (TYPE int) (BINARY < (BINARY - (BINARY + (LITERAL 1) (BINARY * (LITERAL 2) "
+                + "(AS (NEGATE (LITERAL 3.5)) int))) (CALL f (LITERAL 4) (LITERAL 5.0))) (LITERAL 6)))",
+                program.get(2).toString());
+    }
+
+    @Test
+    public void testExpressionTypes() throws CompileError {
+        var ast = analyse("fn f(a: int, b: double) -> double { return (a as double + b) * -b; }").getProgram().get(0);
+        var types = new StringBuilder();
+        for (int node = 0; node < ast.size(); node++) {
+            var kind = ast.kind(node);
+            if (kind == NodeKind.IDENT || kind == NodeKind.AS || kind == NodeKind.BINARY || kind == NodeKind.NEGATE) {
+                types.append(kind).append(':').append(ast.type(node)).append(' ');
+            }
+        }
+        assertEquals("IDENT:int AS:double IDENT:double BINARY:double IDENT:double NEGATE:double BINARY:double ",
+                types.toString());
+    }
+
+    @Test
+    public void testTypeErrors() throws CompileError {
+        var cases = new Object[][] {
+                { "let x: int = 1.0;", ErrorCode.TypeMismatch },
+                { "let x: int = 1 + 2.0;", ErrorCode.TypeMismatch },
+                { "let x: void;", ErrorCode.TypeMismatch },
+                { "let x: float = 1;", ErrorCode.UnknownType },
+                { "let x: int = y;", ErrorCode.NotDeclared },
+                { "fn f() -> void { let a: int = 1; { let b: int = 2; } a = b; }", ErrorCode.NotDeclared },
+                { "fn f() -> int { return; }", ErrorCode.TypeMismatch },
+                { "fn f() -> void { return 1; }", ErrorCode.TypeMismatch },
+                { "fn f() -> void { putint(1.5); }", ErrorCode.TypeMismatch },
+                { "fn f() -> void { putint(); }", ErrorCode.ArgumentCountMismatch },
+                { "fn f() -> void { let a: int = f; }", ErrorCode.NotAVariable },
+                { "fn f(a: int) -> void { a(); }", ErrorCode.NotAFunction },
+                { "fn f(const a: int) -> void { a = 1; }", ErrorCode.AssignToConstant },
+                { "fn f() -> void { if 1.0 { } }", ErrorCode.TypeMismatch },
+                { "fn f() -> void { let a: int = putln(); }", ErrorCode.TypeMismatch },
+                { "fn f() -> void { break; }", ErrorCode.NotInLoop },
+                { "let x: int = \"s\";", ErrorCode.TypeMismatch },
+                { "let x: int = \"a\" + 1;", ErrorCode.TypeMismatch },
+                { "fn f() -> void { putint(\"s\"); }", ErrorCode.TypeMismatch },
+                { "fn f() -> void { putstr(1); }", ErrorCode.TypeMismatch },
+                { "let x: string;", ErrorCode.UnknownType },
+                { "fn f(a: int) -> int { if a { return 1; } }", ErrorCode.MissingReturn },
+                { "fn f(a: int) -> int { while a { return 1; } }", ErrorCode.MissingReturn },
+                { "fn f(a: int) -> double { if a { return 1.0; } else if a < 2 { return 2.0; } }",
+                        ErrorCode.MissingReturn },
+        };
+        for (var c : cases) {
+            try {
+                analyse((String) c[0]);
+                fail((String) c[0]);
+            } catch (AnalyzeError e) {
+                assertEquals((String) c[0], c[1], e.getErr());
+            }
+        }
+        // 内置函数可以直接用，也可以被同名的全局函数遮住
+        analyse("fn f() -> void { putint(getint()); putln(); }\nfn putln(x: int) -> int { return x; }");
+        analyse("fn f(a: int) -> int { putstr(\"a\"); if a { return 1; } else if a < 2 { return 2; } "
+                + "else { { return 3; } } }");
+    }
+
+    @Test
+    public void testLongOperatorChains() throws CompileError {
+        var sb = new StringBuilder("let a: int = 1;\nlet x: int = a");
+        for (int i = 0; i < 100000; i++) {
+            sb.append(i % 2 == 0 ? " + a" : " - -a as int");
+        }
+        var ast = analyse(sb.append(";").toString()).getProgram().get(1);
+        // 左结合：根节点的右操作数是最后一项，左操作数是前面所有项
+        int node = ast.rhs(ast.root());
+        assertEquals(TokenType.MINUS, ast.tokens().typeAt(ast.token(node)));
+        assertEquals("(AS (NEGATE (IDENT a)) int)", ast.dump(ast.rhs(node)));
+        assertEquals(TokenType.PLUS, ast.tokens().typeAt(ast.token(ast.lhs(node))));
+        assertEquals("(LET y (TYPE int) (BINARY == (BINARY - (BINARY - (IDENT a) (IDENT b)) (IDENT c)) "
+                + "(NEGATE (NEGATE (NEGATE (IDENT d))))))",
+                analyse("let a: int = 1; let b: int = 2; let c: int = 3; let d: int = 4;\n"
+                        + "let y: int = a - b - c == ---d;").getProgram().get(4).toString());
+    }
+
+    @Test
+    public void testDeeplyNestedBlocks() throws CompileError {
+        int depth = 30000;
+        var sb = new StringBuilder("fn f(a: int) -> void {");
+        for (int i = 0; i < depth; i++) {
+            sb.append(" { if a { while a {");
+        }
+        for (int i = 0; i < depth; i++) {
+            sb.append(" } } else { ; } }");
+        }
+        var ast = analyse(sb.append(" }").toString()).getProgram().get(0);
+        // 语法树本身也很深，不能用递归的 toString()，沿着第一个子节点往下数
+        int node = ast.rhs(ast.root());
+        int blocks = 0;
+        while (true) {
+            var kind = ast.kind(node);
+            if (kind == NodeKind.BLOCK && ast.lhs(node) < ast.rhs(node)) {
+                blocks++;
+                node = ast.extra(ast.lhs(node));
+            } else if (kind == NodeKind.IF) {
+                assertEquals("(BLOCK (EMPTY))", ast.dump(ast.extra(ast.rhs(node) + 1)));
+                node = ast.extra(ast.rhs(node));
+            } else if (kind == NodeKind.WHILE) {
+                node = ast.rhs(node);
+            } else {
+                break;
+            }
+        }
+        assertEquals(NodeKind.BLOCK, ast.kind(node));
+        // 函数体加上每层三个非空的块，最里面的空块不算
+        assertEquals(3 * depth, blocks);
+    }
+
+    @Test
+    public void testScopedDeclarations() throws CompileError {
+        var globals = analyse("let x: int = 1;\n"
+                + "fn f(x: double) -> void { let x: int = 2; { let x: double = 3.0; } let y: int = x; }\n"
+                + "const y: int = 4;\n").getGlobals();
+        assertEquals(3, globals.size());
+        assertEquals("Element{name='y', type='int', isPara=false, isConst=true, isGlobal=true, slot=1}",
+                globals.get(2).toString());
+        // 内层遮住外层可以，同一层重复定义不行
+        for (var source : new String[] { "let x: int = 1; fn x() -> void {}",
+                "fn f(a: int, a: int) -> void {}", "fn f() -> void { let a: int = 1; const a: int = 2; }" }) {
+            try {
+                analyse(source);
+                fail(source);
+            } catch (AnalyzeError e) {
+                assertEquals(ErrorCode.DuplicateDeclaration, e.getErr());
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalEditReusesUntouchedItems() throws CompileError {
+        var analyser = analyse(PROGRAM);
+        var before = new java.util.ArrayList<>(analyser.getGlobals());
+
+        // 只改 h 的函数体
+        int offset = PROGRAM.indexOf("a + 1");
+        var edited = PROGRAM.substring(0, offset) + "a * 2 + 1" + PROGRAM.substring(offset + 5);
+        analyser.edit(offset, 5, "a * 2 + 1");
+
+        var after = analyser.getGlobals();
+        assertEquals(analyse(edited).getGlobals().toString(), after.toString());
+        assertEquals(analyse(edited).getProgram().toString(), analyser.getProgram().toString());
+        // 全局符号是 f、g、h、k，只有 h 重新分析过
+        assertSame(before.get(0), after.get(0));
+        assertSame(before.get(1), after.get(1));
+        assertNotSame(before.get(2), after.get(2));
+        assertSame(before.get(3), after.get(3));
+    }
+
+    @Test
+    public void testIncrementalEditAcrossItems() throws CompileError {
+        var analyser = analyse(PROGRAM);
+        // 删掉 g，再把 h 改名
+        int offset = PROGRAM.indexOf("let g");
+        int removed = PROGRAM.indexOf("fn h") + 3 - offset;
+        analyser.edit(offset, removed, "fn hh");
+        var edited = PROGRAM.substring(0, offset) + "fn hh" + PROGRAM.substring(offset + removed);
+        assertEquals(analyse(edited).getGlobals().toString(), analyser.getGlobals().toString());
+        assertEquals(analyse(edited).getProgram().toString(), analyser.getProgram().toString());
+    }
+
+    @Test
+    public void testIncrementalEditRecoversFromErrors() throws CompileError {
+        var analyser = analyse(PROGRAM);
+        int offset = PROGRAM.indexOf("return x;") + 8;
+        try {
+            analyser.edit(offset, 1, "");
+            fail();
+        } catch (CompileError e) {
+            // 少了分号
+        }
+        analyser.edit(offset, 0, ";");
+        assertEquals(analyse(PROGRAM).getGlobals().toString(), analyser.getGlobals().toString());
+    }
 }
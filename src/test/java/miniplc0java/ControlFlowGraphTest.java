@@ -0,0 +1,143 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import miniplc0java.instruction.FunctionDef;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.ir.ControlFlowGraph;
+import miniplc0java.ir.DeadStoreElimination;
+import miniplc0java.ir.DominatorTree;
+import miniplc0java.ir.Liveness;
+import miniplc0java.ir.PassManager;
+import miniplc0java.ir.UnreachableBlockElimination;
+
+public class ControlFlowGraphTest {
+
+    private static List<Instruction> code(Object... ops) {
+        var code = new ArrayList<Instruction>();
+        for (int i = 0; i < ops.length; i++) {
+            var op = (Operation) ops[i];
+            if (i + 1 < ops.length && ops[i + 1] instanceof Integer) {
+                code.add(new Instruction(op, (Integer) ops[++i]));
+            } else {
+                code.add(new Instruction(op));
+            }
+        }
+        return code;
+    }
+
+    // if a { x = 1; } else { x = 2; } return x;
+    private static FunctionDef branch() {
+        return new FunctionDef("f", 1, 1, true, code(
+                Operation.LOADA, 0, Operation.JZ, 5,
+                Operation.LIT, 1, Operation.STOREL, 0, Operation.JMP, 7,
+                Operation.LIT, 2, Operation.STOREL, 0,
+                Operation.LOADL, 0, Operation.RET));
+    }
+
+    // x = 10; while x { x = x - 1; } return;
+    private static FunctionDef loop() {
+        return new FunctionDef("g", 0, 1, false, code(
+                Operation.LIT, 10, Operation.STOREL, 0,
+                Operation.LOADL, 0, Operation.JZ, 9,
+                Operation.LOADL, 0, Operation.LIT, 1, Operation.SUB, Operation.STOREL, 0, Operation.JMP, 2,
+                Operation.RET));
+    }
+
+    @Test
+    public void testBuildAndLower() {
+        var function = branch();
+        var listing = function.getBody().toString();
+        var cfg = ControlFlowGraph.build(function);
+        var blocks = cfg.getBlocks();
+        assertEquals(5, blocks.size());
+        assertEquals("B0 -> B1 B2\n    LOADA 0\n    JZ 5\n", blocks.get(0).toString());
+        assertEquals("B1 -> B3\n", blocks.get(1).toString().split("(?<=\n)")[0]);
+        assertEquals("B2 -> B3\n", blocks.get(2).toString().split("(?<=\n)")[0]);
+        assertEquals(2, blocks.get(3).getPredecessors().size());
+        // 最后是空的出口块，这个函数以 RET 结尾，没有块走到它
+        assertTrue(blocks.get(4).getCode().isEmpty());
+        assertEquals(listing, cfg.lower().toString());
+
+        assertTrue(new UnreachableBlockElimination().run(cfg, new PassManager()));
+        assertEquals(4, blocks.size());
+        assertEquals(listing, cfg.lower().toString());
+    }
+
+    @Test
+    public void testDominators() {
+        var cfg = ControlFlowGraph.build(branch());
+        var blocks = cfg.getBlocks();
+        var tree = new PassManager().get(cfg, DominatorTree.ANALYSIS);
+        assertNull(tree.idom(blocks.get(0)));
+        for (int k = 1; k <= 3; k++) {
+            assertSame(blocks.get(0), tree.idom(blocks.get(k)));
+        }
+        assertEquals(3, tree.children(blocks.get(0)).size());
+        assertFalse(tree.dominates(blocks.get(1), blocks.get(3)));
+        assertNull(tree.idom(blocks.get(4)));
+        assertFalse(tree.dominates(blocks.get(0), blocks.get(4)));
+
+        // 循环头支配循环体，循环体跳回循环头的边是回边
+        cfg = ControlFlowGraph.build(loop());
+        blocks = cfg.getBlocks();
+        tree = new PassManager().get(cfg, DominatorTree.ANALYSIS);
+        var header = blocks.get(1);
+        var body = blocks.get(2);
+        assertSame(header, body.getSuccessors().get(0));
+        assertTrue(tree.dominates(header, body));
+        assertTrue(tree.dominates(header, blocks.get(3)));
+        assertFalse(tree.dominates(body, header));
+        assertTrue(tree.dominates(body, body));
+    }
+
+    @Test
+    public void testLiveness() {
+        var cfg = ControlFlowGraph.build(branch());
+        var blocks = cfg.getBlocks();
+        var liveness = new PassManager().get(cfg, Liveness.ANALYSIS);
+        // 参数 a 是 0，局部变量 x 是 1
+        assertEquals("{0}", liveness.liveIn(blocks.get(0)).toString());
+        assertEquals("{}", liveness.liveOut(blocks.get(0)).toString());
+        assertEquals("{1}", liveness.liveOut(blocks.get(1)).toString());
+        assertEquals("{1}", liveness.liveIn(blocks.get(3)).toString());
+
+        // 循环里的 x 沿着回边一直活跃
+        cfg = ControlFlowGraph.build(loop());
+        blocks = cfg.getBlocks();
+        liveness = new PassManager().get(cfg, Liveness.ANALYSIS);
+        assertEquals("{}", liveness.liveIn(blocks.get(0)).toString());
+        assertEquals("{0}", liveness.liveIn(blocks.get(1)).toString());
+        assertEquals("{0}", liveness.liveOut(blocks.get(2)).toString());
+        assertEquals("{}", liveness.liveIn(blocks.get(3)).toString());
+    }
+
+    @Test
+    public void testPassManager() {
+        var manager = new PassManager().add(new DeadStoreElimination()).add(new DeadStoreElimination());
+        // 没有改动，第二遍用缓存的分析结果
+        manager.run(branch());
+        assertEquals(1, manager.runs("build"));
+        assertEquals(2, manager.runs("dead-stores"));
+        assertEquals(1, manager.runs("liveness"));
+
+        // 第一遍删掉了死存储，第二遍要重新分析
+        var function = new FunctionDef("h", 0, 1, true, code(
+                Operation.LIT, 5, Operation.STOREL, 0, Operation.LIT, 6, Operation.STOREL, 0,
+                Operation.LOADL, 0, Operation.RET));
+        manager.run(function);
+        assertEquals(3, manager.runs("liveness"));
+        assertEquals("[LIT 5, POP, LIT 6, STOREL 0, LOADL 0, RET]", function.getBody().toString());
+        assertEquals(2, manager.runs("lower"));
+    }
+}
@@ -1,7 +1,10 @@
 package miniplc0java;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
@@ -9,8 +12,20 @@ import java.util.List;
 
 import org.junit.Test;
 
+import miniplc0java.analyser.Analyser;
+import miniplc0java.error.AnalyzeError;
+import miniplc0java.error.CompileError;
+import miniplc0java.error.ErrorCode;
+import miniplc0java.instruction.DeadCodeEliminator;
+import miniplc0java.instruction.FunctionDef;
 import miniplc0java.instruction.Instruction;
 import miniplc0java.instruction.Operation;
+import miniplc0java.instruction.PeepholeOptimizer;
+import miniplc0java.instruction.Program;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.TokenBuffer;
+import miniplc0java.tokenizer.Tokenizer;
+import miniplc0java.util.Pos;
 import miniplc0java.vm.MiniVm;
 
 public class MiniVmTest {
@@ -28,6 +43,196 @@ public class MiniVmTest {
         return outString;
     }
 
+    private Program compile(String source) throws CompileError {
+        var analyser = new Analyser(new TokenBuffer(new Tokenizer(new StringIter(source))));
+        analyser.analyse();
+        return analyser.generate();
+    }
+
+    private String runSource(String source, String input) throws CompileError {
+        return runProgram(compile(source), input);
+    }
+
+    private String runProgram(Program program, String input) {
+        var utf8 = java.nio.charset.StandardCharsets.UTF_8;
+        ByteArrayOutputStream ostream = new ByteArrayOutputStream();
+        var output = new PrintStream(ostream, true, utf8);
+        new MiniVm(program, new ByteArrayInputStream(input.getBytes(utf8)), output).Run();
+        output.close();
+        return ostream.toString(utf8);
+    }
+
+    @Test
+    public void testFibonacci() throws CompileError {
+        var source = "fn fib(x: int) -> int {\n"
+                + "    if x<=1 {\n"
+                + "        return 1;\n"
+                + "    }\n"
+                + "    let result: int = fib(x - 1);\n"
+                + "    result = result + fib(x - 2);\n"
+                + "    return result;\n"
+                + "}\n"
+                + "\n"
+                + "fn main() -> int {\n"
+                + "    let i: int = 0;\n"
+                + "    let j: int;\n"
+                + "    j = getint();\n"
+                + "    while i < j {\n"
+                + "        putint(i);\n"
+                + "        putchar(32);\n"
+                + "        putint(fib(i));\n"
+                + "        putln();\n"
+                + "        i = i + 1;\n"
+                + "    }\n"
+                + "    return 0;\n"
+                + "}\n";
+        assertEquals("0 1\n1 1\n2 2\n3 3\n4 5\n5 8\n", runSource(source, "6\n"));
+    }
+
+    @Test
+    public void testControlFlowAndDoubles() throws CompileError {
+        var source = "const scale: double = 0.5;\n"
+                + "let count: int = 0;\n"
+                + "fn sign(x: int) -> int { if x < 0 { return -1; } else if x == 0 { return 0; } else { return 1; } }\n"
+                + "fn main() -> void {\n"
+                + "    let i: int = 0;\n"
+                + "    while 1 {\n"
+                + "        i = i + 1;\n"
+                + "        if i > 5 { break; }\n"
+                + "        if i == 3 { continue; }\n"
+                + "        count = count + 1;\n"
+                + "    }\n"
+                + "    putint(count); putchar(' ');\n"
+                + "    putint(sign(-7) + sign(0) * 10 + sign(9) * 100); putchar(' ');\n"
+                + "    putdouble(getdouble() * scale + 1 as double); putchar(' ');\n"
+                + "    putint((7.9 as int) / 2); putchar(' ');\n"
+                + "    putstr(\"ok\"); putln();\n"
+                + "}\n";
+        assertEquals("4 99 2.25 3 ok\n", runSource(source, "2.5"));
+    }
+
+    @Test
+    public void testConstantFolding() throws CompileError {
+        var program = compile("const N: int = 60 * 60 * 24;\n"
+                + "let half: double = 1.0 / 2.0;\n"
+                + "fn main() -> void {\n"
+                + "    let x: int = getint();\n"
+                + "    let k: int = N / 3600 - 4;\n"
+                + "    putint(x * 1 + 0 + N * k);\n"
+                + "    putint(0 * x + 7 / 0);\n"
+                + "    putdouble(half * 3 as double);\n"
+                + "}\n");
+        // k 传播成常量以后不用保存，x 写完只读一次，直接用栈上的值，两个写都被当成死存储删掉
+        assertEquals("[GETINT, LIT 1728000, ADD, PUTINT, LIT 7, LIT 0, DIV, PUTINT, LITD 1.5, PUTDOUBLE, RET]",
+                program.getFunctions().get(0).getBody().toString());
+        // 整数除以 0 留到运行时
+        try {
+            runProgram(program, "5");
+            fail();
+        } catch (ArithmeticException e) {
+        }
+    }
+
+    @Test
+    public void testDeadCode() throws CompileError {
+        var program = compile("let unused: int = getint();\n"
+                + "let used: int = 40;\n"
+                + "fn helper(x: int) -> int { return x * 2; }\n"
+                + "fn twice(x: int) -> int { return x + x; putint(helper(x)); }\n"
+                + "fn main() -> void {\n"
+                + "    used = used + 1;\n"
+                + "    while 1 { putint(twice(used)); break; putln(); }\n"
+                + "    putln();\n"
+                + "}\n");
+        var names = new ArrayList<String>();
+        for (var function : program.getFunctions()) {
+            names.add(function.getName());
+        }
+        assertEquals("[twice, main, _start]", names.toString());
+        assertEquals(1, program.getGlobals());
+        // return 后面对 helper 的调用先被控制流图上的 Pass 删掉，调用图里就没有 helper 了
+        assertEquals("[LOADA 0, LOADA 0, ADD, RET]", program.getFunctions().get(0).getBody().toString());
+        // 不用的全局变量不保存，但它的初始化照样读输入
+        assertEquals("[GETINT, POP, LIT 40, STOREG 0, CALL 1, RET]", program.getEntry().getBody().toString());
+        assertEquals("82\n", runProgram(program, "5"));
+    }
+
+    @Test
+    public void testCallGraphPruning() {
+        // 0: f 只被 g 调用，1: g 没人调用，2: main 读全局变量 1，3: 入口
+        var program = new Program();
+        program.addFunction(new FunctionDef("f", 0, 0, false, new ArrayList<>(List.of(
+                new Instruction(Operation.RET)))));
+        program.addFunction(new FunctionDef("g", 0, 0, false, new ArrayList<>(List.of(
+                new Instruction(Operation.CALL, 0), new Instruction(Operation.RET)))));
+        program.addFunction(new FunctionDef("main", 0, 0, false, new ArrayList<>(List.of(
+                new Instruction(Operation.LOADG, 1), new Instruction(Operation.PUTINT), new Instruction(Operation.RET),
+                new Instruction(Operation.PUTLN)))));
+        program.addFunction(new FunctionDef("_start", 0, 0, false, new ArrayList<>(List.of(
+                new Instruction(Operation.LIT, 1), new Instruction(Operation.STOREG, 0),
+                new Instruction(Operation.LIT, 2), new Instruction(Operation.STOREG, 1),
+                new Instruction(Operation.CALL, 2), new Instruction(Operation.RET)))));
+        program.setGlobals(2);
+        var eliminator = new DeadCodeEliminator();
+        eliminator.eliminate(program);
+        assertEquals(2, eliminator.getRemovedFunctions());
+        assertEquals(1, eliminator.getRemovedGlobals());
+        assertEquals(1, program.getGlobals());
+        // 函数内执行不到的指令留给控制流图上的 Pass，这里不动
+        assertEquals("[LOADG 0, PUTINT, RET, PUTLN]", program.getFunctions().get(0).getBody().toString());
+        assertEquals("[LIT 1, POP, LIT 2, STOREG 0, CALL 0, RET]", program.getEntry().getBody().toString());
+        assertEquals("2", runProgram(program, ""));
+    }
+
+    @Test
+    public void testMissingMainAndStringListing() throws CompileError {
+        try {
+            compile("let x: int = 1;\nfn f() -> void { }\n");
+            fail();
+        } catch (AnalyzeError e) {
+            assertEquals(ErrorCode.NoMain, e.getErr());
+            assertEquals(new Pos(2, 0), e.getPos());
+        }
+        var program = compile("fn main() -> void { putstr(\"say \\\"hi\\\"\\n\\\\\"); }");
+        assertTrue(program.toString().startsWith(".globals 0\n.string 0 \"say \\\"hi\\\"\\n\\\\\"\n"));
+        assertEquals("say \"hi\"\n\\", runProgram(program, ""));
+    }
+
+    @Test
+    public void testPeephole() {
+        var instructions = new ArrayList<Instruction>();
+        instructions.add(new Instruction(Operation.LIT, 0)); // 变量 0
+        instructions.add(new Instruction(Operation.LIT, 0));
+        instructions.add(new Instruction(Operation.LIT, 5));
+        instructions.add(new Instruction(Operation.SUB));
+        instructions.add(new Instruction(Operation.STO, 0));
+        instructions.add(new Instruction(Operation.LOD, 0));
+        instructions.add(new Instruction(Operation.WRT));
+        instructions.add(new Instruction(Operation.LIT, 0));
+        instructions.add(new Instruction(Operation.LOD, 0));
+        instructions.add(new Instruction(Operation.SUB));
+        instructions.add(new Instruction(Operation.WRT));
+        instructions.add(new Instruction(Operation.LIT, 1));
+        instructions.add(new Instruction(Operation.JZ, 15));
+        instructions.add(new Instruction(Operation.JMP, 14));
+        instructions.add(new Instruction(Operation.LIT, 0));
+        // 第一轮时这里是跳转目标，前面的 LIT 0 不能和它合并，去掉 JZ 以后第二轮才能化简
+        instructions.add(new Instruction(Operation.LIT, 7));
+        instructions.add(new Instruction(Operation.ADD));
+        instructions.add(new Instruction(Operation.WRT));
+        assertEquals("-5\n5\n7\n", RunVm(instructions));
+
+        var peephole = new PeepholeOptimizer();
+        var optimized = peephole.optimize(instructions);
+        assertEquals("[LIT 0, LIT -5, DUP, STO 0, WRT, LOD 0, NEG, WRT, LIT 7, WRT]", optimized.toString());
+        assertEquals("-5\n5\n7\n", RunVm(optimized));
+        for (var rule : new String[] { "negate-constant", "add-to-zero", "negate-load", "store-load",
+                "constant-branch", "jump-to-next" }) {
+            assertEquals(rule, 1, peephole.hits(rule));
+        }
+        assertEquals(0, peephole.hits("push-pop"));
+    }
+
     @Test
     public void testPlus() {
         var instructions = new ArrayList<Instruction>();
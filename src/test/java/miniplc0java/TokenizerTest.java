@@ -3,6 +3,419 @@ package miniplc0java;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import miniplc0java.error.ErrorCode;
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Token;
+import miniplc0java.tokenizer.TokenBuffer;
+import miniplc0java.tokenizer.TokenType;
+import miniplc0java.tokenizer.Tokenizer;
+import miniplc0java.util.Pos;
+
 public class TokenizerTest {
 
+    private List<Token> tokenize(String source) throws TokenizeError {
+        return tokenize(new StringIter(source));
+    }
+
+    private List<Token> tokenize(StringIter it) throws TokenizeError {
+        var tokenizer = new Tokenizer(it);
+        var tokens = new ArrayList<Token>();
+        while (true) {
+            var token = tokenizer.nextToken();
+            if (token.getTokenType() == TokenType.EOF) {
+                break;
+            }
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    @Test
+    public void testPositionsFromOffsets() {
+        var it = new StringIter("ab\ncd\n");
+        it.readAll();
+        it.nextChar();
+        it.nextChar();
+        assertEquals(0, it.currentPos().row);
+        assertEquals(2, it.currentPos().col);
+        it.nextChar();
+        assertEquals(1, it.currentPos().row);
+        assertEquals(0, it.currentPos().col);
+        assertEquals('c', it.peekChar());
+    }
+
+    @Test
+    public void testTokenPositionsAreResolvedFromOffsets() throws TokenizeError {
+        var tokens = tokenize("let\n  abc: int;");
+        var ident = tokens.get(1);
+        assertEquals(6, ident.getStartOffset());
+        assertEquals(9, ident.getEndOffset());
+        assertEquals(new Pos(1, 2), ident.getStartPos());
+        assertEquals(new Pos(1, 5), ident.getEndPos());
+    }
+
+    @Test
+    public void testKeywordsAndNearMisses() throws TokenizeError {
+        var tokens = tokenize("fn let const as while if else return break continue constant iff _if els Fn");
+        var expected = List.of(TokenType.FN_KW, TokenType.LET_KW, TokenType.CONST_KW, TokenType.AS_KW,
+                TokenType.WHILE_KW, TokenType.IF_KW, TokenType.ELSE_KW, TokenType.RETURN_KW, TokenType.BREAK_KW,
+                TokenType.CONTINUE_KW, TokenType.IDENT, TokenType.IDENT, TokenType.IDENT, TokenType.IDENT,
+                TokenType.IDENT);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), tokens.get(i).getTokenType());
+        }
+        assertEquals("constant", tokens.get(10).getValueString());
+        assertEquals("while", tokens.get(4).getValueString());
+    }
+
+    @Test
+    public void testLiteralsAreDecodedLazily() throws TokenizeError {
+        var tokens = tokenize("\"a\\tb\\\"c\\q\" '\\n' 'x' // 注释\n");
+        assertEquals("a\tb\"c\\q", tokens.get(0).getValueString());
+        assertEquals('\n', tokens.get(1).getValue());
+        assertEquals('x', tokens.get(2).getValue());
+        assertEquals("// 注释", tokens.get(3).getValueString());
+    }
+
+    @Test(expected = TokenizeError.class)
+    public void testUnterminatedString() throws TokenizeError {
+        tokenize("let s: int = \"abc");
+    }
+
+    @Test
+    public void testDoubleLiteralsAreCorrectlyRounded() throws TokenizeError {
+        var literals = new String[] { "1.1e-5", "0.1", "3.14159", "2.5E+3", "6.02214076e23", "1.7976931348623157e308",
+                "4.9e-324", "0.000000000000000000000000001", "123456789012345678901234.5", "9007199254740993.0",
+                "1.0e400", "7.0e-400" };
+        for (var literal : literals) {
+            var token = tokenize(literal).get(0);
+            assertEquals(TokenType.DOUBLE_LITERAL, token.getTokenType());
+            assertEquals(literal, Double.parseDouble(literal), token.getValue());
+        }
+    }
+
+    @Test
+    public void testUIntLiterals() throws TokenizeError {
+        assertEquals(9223372036854775807L, tokenize("9223372036854775807").get(0).getValue());
+        assertEquals(0L, tokenize("000").get(0).getValue());
+        try {
+            tokenize("9223372036854775808");
+            fail("expected IntegerOverflow");
+        } catch (TokenizeError e) {
+            assertEquals(ErrorCode.IntegerOverflow, e.getErr());
+        }
+    }
+
+    @Test(expected = TokenizeError.class)
+    public void testMissingExponentDigits() throws TokenizeError {
+        tokenize("1.5e+;");
+    }
+
+    @Test
+    public void testCommentAtEndOfInput() throws TokenizeError {
+        var tokens = tokenize("let x: int; // no trailing newline");
+        assertEquals(TokenType.COMMENT, tokens.get(tokens.size() - 1).getTokenType());
+    }
+
+    @Test
+    public void testStreamingMatchesFlat() throws TokenizeError {
+        var sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("fn f").append(i).append("(x: int) -> int {\n");
+            sb.append("    // 注释 ").append(i).append('\n');
+            sb.append("    let s: int = \"字符串 ").append(i).append("\";\n");
+            sb.append("    return x * ").append(i).append(" >= 1.5e3;\n}\n");
+        }
+        var source = sb.toString();
+        var stream = new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
+        var streamed = tokenize(new StringIter(Channels.newChannel(stream), 64));
+        var flat = tokenize(source);
+        // 流式模式下注释不会提前解码，窗口滑过以后就取不到内容了，只比较其余的 token
+        streamed.removeIf(t -> t.getTokenType() == TokenType.COMMENT);
+        flat.removeIf(t -> t.getTokenType() == TokenType.COMMENT);
+        assertEquals(flat, streamed);
+    }
+
+    @Test
+    public void testStreamingLongTokens() throws TokenizeError {
+        // 比整个窗口还长的字符串、标识符和注释
+        var text = "长".repeat(100) + "\\n" + "x".repeat(100);
+        var name = "a".repeat(300);
+        var source = "let " + name + ": int = \"" + text + "\"; // " + "c".repeat(500) + "\n1.25";
+        var stream = new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
+        var streamed = tokenize(new StringIter(Channels.newChannel(stream), 16));
+        streamed.removeIf(t -> t.getTokenType() == TokenType.COMMENT);
+        assertEquals(name, streamed.get(1).getValue());
+        assertEquals("长".repeat(100) + "\n" + "x".repeat(100), streamed.get(5).getValue());
+        assertEquals(1.25, streamed.get(7).getValue());
+    }
+
+    @Test(timeout = 5000)
+    public void testStreamingSurrogatePairAtWindowEdge() throws TokenizeError {
+        // 固定了 token 开头以后窗口只剩一格，正好轮到一个要解码成两个 char 的字符
+        for (int n : new int[] { 14, 30 }) {
+            var literal = "a".repeat(n) + "\uD83D\uDE00";
+            var source = "\"" + literal + "\"";
+            var stream = new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
+            var streamed = tokenize(new StringIter(Channels.newChannel(stream), 16));
+            assertEquals(1, streamed.size());
+            assertEquals(literal, streamed.get(0).getValue());
+        }
+    }
+
+    @Test
+    public void testTokenBufferMatchesTokens() throws TokenizeError {
+        var source = "fn f(x: int) -> double { // c\n return 1.5e2 + x as double * 'a' + \"s\\n\"; }";
+        var expected = tokenize(source);
+        expected.removeIf(t -> t.getTokenType() == TokenType.COMMENT);
+        var buffer = new TokenBuffer(new Tokenizer(new StringIter(source)));
+        buffer.fillAll();
+        assertEquals(expected.size() + 1, buffer.size());
+        for (int i = 0; i < expected.size(); i++) {
+            var token = expected.get(i);
+            assertEquals(token.getTokenType(), buffer.typeAt(i));
+            assertEquals(token.getStartOffset(), buffer.startAt(i));
+            assertEquals(token.getEndOffset(), buffer.endAt(i));
+        }
+        assertEquals(TokenType.EOF, buffer.typeAt(buffer.size() + 3));
+        assertEquals(150.0, buffer.valueAt(11));
+        assertEquals('a', buffer.valueAt(17));
+        assertEquals("s\n", buffer.valueAt(19));
+    }
+
+    @Test
+    public void testFixedTokensShareValues() throws TokenizeError {
+        var source = "fn f() -> int { return 1 <= 2; }";
+        var tokens = tokenize(source);
+        var buffer = new TokenBuffer(new Tokenizer(new StringIter(source)));
+        buffer.fillAll();
+        assertEquals('(', tokens.get(2).getValue());
+        assertEquals("->", tokens.get(4).getValue());
+        assertEquals("<=", tokens.get(9).getValue());
+        for (int i = 0; i < tokens.size(); i++) {
+            var tokenType = tokens.get(i).getTokenType();
+            if (tokenType.fixedValue() != null) {
+                assertSame(tokenType.fixedValue(), tokens.get(i).getValue());
+                assertSame(tokenType.fixedValue(), buffer.valueAt(i));
+            }
+        }
+    }
+
+    @Test
+    public void testIdentifiersAreInterned() throws TokenizeError {
+        var source = "let abc: int = ab + abc; fn ab() -> void {}";
+        var input = new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
+        var flat = new TokenBuffer(new Tokenizer(new StringIter(source)));
+        var streaming = new TokenBuffer(new Tokenizer(new StringIter(Channels.newChannel(input), 8)));
+        for (var buffer : List.of(flat, streaming)) {
+            buffer.fillAll();
+            var interner = buffer.getInterner();
+            // abc int ab void 按第一次出现的顺序编号
+            assertEquals(4, interner.size());
+            assertEquals(0, buffer.identAt(1));
+            assertEquals(buffer.identAt(1), buffer.identAt(7));
+            assertEquals(2, buffer.identAt(5));
+            assertEquals(buffer.identAt(5), buffer.identAt(10));
+            assertEquals(-1, buffer.identAt(0));
+            assertEquals("ab", buffer.valueAt(10));
+            assertEquals(3, interner.find("void"));
+            assertEquals(-1, interner.find("abcd"));
+        }
+    }
+
+    @Test
+    public void testOperatorsUseLongestMatch() throws TokenizeError {
+        var tokens = tokenize("a->b<=c<d>=e>f==g=h!=i-j//k\n/*");
+        var expected = new TokenType[] { TokenType.IDENT, TokenType.ARROW, TokenType.IDENT, TokenType.LE,
+                TokenType.IDENT, TokenType.LT, TokenType.IDENT, TokenType.GE, TokenType.IDENT, TokenType.GT,
+                TokenType.IDENT, TokenType.EQ, TokenType.IDENT, TokenType.ASSIGN, TokenType.IDENT, TokenType.NEQ,
+                TokenType.IDENT, TokenType.MINUS, TokenType.IDENT, TokenType.COMMENT, TokenType.DIV, TokenType.MUL };
+        assertEquals(expected.length, tokens.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], tokens.get(i).getTokenType());
+        }
+        assertEquals(4, tokens.get(3).getStartOffset());
+        assertEquals(6, tokens.get(3).getEndOffset());
+    }
+
+    @Test
+    public void testErrorPositionsResolvedFromOffsets() {
+        var error = lexError(new StringIter("let a = 1;\n  let b = 1.;"));
+        assertEquals(ErrorCode.InvalidInput, error.getErr());
+        assertTrue(error.toString().endsWith("Pos(row: 1, col: 12)"));
+        assertEquals(new Pos(1, 12), error.getPos());
+    }
+
+    @Test
+    public void testLoneBangIsInvalidInput() {
+        try {
+            tokenize("a = !b;");
+            fail();
+        } catch (TokenizeError e) {
+            assertEquals(ErrorCode.InvalidInput, e.getErr());
+            assertEquals(new Pos(0, 4), e.getPos());
+        }
+    }
+
+    @Test
+    public void testRawBytesMatchesChars() throws TokenizeError {
+        var source = "let s = \"多\\n行\";\u3000let c = '字' // 注释\n  x = 'a' + 1.5;";
+        var chars = tokenize(source);
+        var bytes = tokenize(new StringIter(source.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(chars.size(), bytes.size());
+        for (int i = 0; i < chars.size(); i++) {
+            assertEquals(chars.get(i).getTokenType(), bytes.get(i).getTokenType());
+            assertEquals(chars.get(i).getValue(), bytes.get(i).getValue());
+            // 偏移是字节偏移，但换算出来的行列号和按 char 计算的一致
+            assertEquals(chars.get(i).getStartPos(), bytes.get(i).getStartPos());
+        }
+        assertEquals("多\n行", bytes.get(3).getValue());
+        assertEquals('字', bytes.get(8).getValue());
+    }
+
+    @Test
+    public void testRawBytesReportsNonAsciiErrors() {
+        for (var source : new String[] { "let 变量 = 1;", "let a = 1 ☃ 2;" }) {
+            var expected = lexError(new StringIter(source));
+            var actual = lexError(new StringIter(source.getBytes(StandardCharsets.UTF_8)));
+            assertEquals(expected.getErr(), actual.getErr());
+            assertEquals(expected.getPos(), actual.getPos());
+        }
+    }
+
+    @Test
+    public void testSupplementaryCharLiteralRejectedInBothModes() {
+        var source = "let c = '\uD83D\uDE00';";
+        var chars = lexError(new StringIter(source));
+        var bytes = lexError(new StringIter(source.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(ErrorCode.InvalidInput, chars.getErr());
+        assertEquals(ErrorCode.InvalidInput, bytes.getErr());
+        assertEquals(new Pos(0, 9), chars.getPos());
+        assertEquals(chars.getPos(), bytes.getPos());
+    }
+
+    private TokenizeError lexError(StringIter it) {
+        try {
+            tokenize(it);
+        } catch (TokenizeError e) {
+            return e;
+        }
+        fail();
+        return null;
+    }
+
+    private static final String[] FRAGMENTS = { "fn", "let", "x1", "_y", "while", "123", "4.5", "6.02e23", "+", "-",
+            "->", "*", "/", "==", "=", "!=", "<", "<=", ">", ">=", "(", ")", "{", "}", ",", ":", ";", "'c'", "'\\n'",
+            "\"str\"", "\"a // b\"", "\"多\\n行\n// 不是注释\n\\\"\"", "// 注释 \"引号", "// '", "\n", "\n", " ", "\t" };
+
+    private String generateSource(java.util.Random random, int fragments) {
+        var sb = new StringBuilder();
+        for (int i = 0; i < fragments; i++) {
+            sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            // 注释必须以换行结束，其余的用空白隔开
+            sb.append(sb.lastIndexOf("//") > sb.lastIndexOf("\n") ? '\n' : ' ');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testParallelTokenizeMatchesSequential() throws TokenizeError {
+        var random = new java.util.Random(20201017);
+        var pool = new ForkJoinPool(4);
+        for (int round = 0; round < 40; round++) {
+            var source = generateSource(random, random.nextInt(2000));
+            var expected = tokenize(source);
+            expected.removeIf(t -> t.getTokenType() == TokenType.COMMENT);
+            for (int chunkSize : new int[] { 1, 13, 200, 1 << 16 }) {
+                var buffer = new Tokenizer(new StringIter(source)).tokenizeParallel(pool, chunkSize);
+                assertEquals(expected.size() + 1, buffer.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    var token = expected.get(i);
+                    assertEquals(token.getTokenType(), buffer.typeAt(i));
+                    assertEquals(token.getStartOffset(), buffer.startAt(i));
+                    assertEquals(token.getEndOffset(), buffer.endAt(i));
+                    assertEquals(token.getValue(), buffer.valueAt(i));
+                }
+                assertEquals(TokenType.EOF, buffer.typeAt(expected.size()));
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testIncrementalEditMatchesFullRelex() throws TokenizeError {
+        var random = new java.util.Random(20201018);
+        for (int round = 0; round < 20; round++) {
+            var source = generateSource(random, 200);
+            var buffer = new TokenBuffer(new Tokenizer(new StringIter(source)));
+            buffer.fillAll();
+            for (int step = 0; step < 30; step++) {
+                int offset = random.nextInt(source.length() + 1);
+                int removed = random.nextInt(Math.min(8, source.length() - offset) + 1);
+                var inserted = random.nextBoolean() ? "" : FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+                var edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+                var expected = new TokenBuffer(new Tokenizer(new StringIter(edited)));
+                try {
+                    expected.fillAll();
+                } catch (TokenizeError e) {
+                    try {
+                        buffer.edit(offset, removed, inserted);
+                        fail();
+                    } catch (TokenizeError ignored) {
+                        // 出错时缓冲区保持原样，接着在原来的源码上编辑
+                    }
+                    continue;
+                }
+                var splice = buffer.edit(offset, removed, inserted);
+                source = edited;
+                assertEquals(expected.size(), buffer.size());
+                assertTrue(splice.from <= splice.newEnd);
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.typeAt(i), buffer.typeAt(i));
+                    assertEquals(expected.startAt(i), buffer.startAt(i));
+                    assertEquals(expected.endAt(i), buffer.endAt(i));
+                    assertEquals(expected.valueAt(i), buffer.valueAt(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalEditRelexesOnlyDamagedTokens() throws TokenizeError {
+        var buffer = new TokenBuffer(new Tokenizer(new StringIter("let a = 1;\nlet b = 2;\nlet c = 3;\n")));
+        buffer.fillAll();
+        var splice = buffer.edit(15, 1, "bb");
+        assertEquals(6, splice.from);
+        assertEquals(7, splice.oldEnd);
+        assertEquals(7, splice.newEnd);
+        assertEquals("bb", buffer.valueAt(6));
+        assertEquals(3L, buffer.valueAt(13));
+        assertEquals(31, buffer.startAt(13));
+    }
+
+    @Test
+    public void testParallelTokenizeReportsFirstError() {
+        var source = "let a = \"#\";\nlet b = 1;\n#\nlet c = 2;\n";
+        Pos expected = null;
+        try {
+            tokenize(source);
+        } catch (TokenizeError e) {
+            expected = e.getPos();
+        }
+        assertNotNull(expected);
+        try {
+            new Tokenizer(new StringIter(source)).tokenizeParallel(ForkJoinPool.commonPool(), 4);
+            fail("expected a TokenizeError");
+        } catch (TokenizeError e) {
+            assertEquals(expected, e.getPos());
+        }
+    }
 }